@@ -0,0 +1,408 @@
+/**
+ * CatalogValidator.java
+ *
+ * Offline validation of a whole catalog of generated plans, including the problems that only show between plans.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.atlassian.bamboo.specs.api.builders.plan.Plan;
+import com.atlassian.bamboo.specs.api.model.permission.PlanPermissionsProperties;
+import com.atlassian.bamboo.specs.api.model.plan.JobProperties;
+import com.atlassian.bamboo.specs.api.model.plan.PlanProperties;
+import com.atlassian.bamboo.specs.api.model.plan.StageProperties;
+import com.atlassian.bamboo.specs.api.model.plan.artifact.ArtifactProperties;
+import com.atlassian.bamboo.specs.api.model.plan.artifact.ArtifactSubscriptionProperties;
+import com.atlassian.bamboo.specs.api.model.plan.requirement.RequirementProperties;
+import com.atlassian.bamboo.specs.api.util.EntityPropertiesBuilders;
+
+/**
+ * CatalogValidator class definition.  validate() builds every plan and its permissions with
+ * EntityPropertiesBuilders.build on a ForkJoinPool, splitting the catalog in halves down to THRESHOLD plans per task.
+ * It then checks the built properties for problems that EntityPropertiesBuilders cannot see one plan at a time:
+ *
+ * <ul>
+ * <li>the same plan key, or the same plan name within a project, used by more than one plan</li>
+ * <li>the same job key used twice within a plan</li>
+ * <li>a job subscribing to an artifact that no job of an earlier stage of the plan shares</li>
+ * <li>a job requirement that no agent capability provides (only when capabilities are given)</li>
+ * </ul>
+ *
+ * Requirements are checked like AgentIndex does: EXISTS needs the key, EQUALS the key with that value and MATCHES
+ * the key with a value matching the pattern.  Each requirement is checked on its own, not whether a single agent
+ * meets all of them.  When the capabilities list a key without values, EQUALS and MATCHES requirements on it cannot
+ * be checked; they are listed as unchecked in the Report instead of passing silently.
+ *
+ * Building is the expensive part and runs in parallel; the cross plan checks are a single pass over small summaries.
+ * With hashes() set the SpecCache hash of each plan is computed from the same built properties and returned in the
+ * Report, so PlanPublisher does not have to build the plans a second time.
+ *
+ */
+public class CatalogValidator {
+
+    static final int THRESHOLD = 16;
+
+    private final ForkJoinPool pool;
+    private Map<String, Set<String>> capabilities;
+    private boolean hashes;
+
+    public CatalogValidator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool pool the plans are built on
+     */
+    public CatalogValidator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * capabilities()
+     *
+     * Sets the capability keys provided by at least one agent, without their values.  Without capabilities
+     * requirements are not checked.
+     *
+     * @param capabilities
+     * @return this
+     */
+    public CatalogValidator capabilities(Set<String> capabilities) {
+        Map<String, Set<String>> keys = new HashMap<String, Set<String>>();
+        for (String key : capabilities) {
+            keys.put(key, Collections.<String>emptySet());
+        }
+        return capabilities(keys);
+    }
+
+    /**
+     * capabilities()
+     *
+     * @param capabilities values provided by at least one agent per capability key; an empty set if unknown
+     * @return this
+     */
+    public CatalogValidator capabilities(Map<String, Set<String>> capabilities) {
+        this.capabilities = capabilities;
+        return this;
+    }
+
+    /**
+     * hashes()
+     *
+     * @param hashes true to compute the SpecCache hash of every valid plan, see Report.getHashes()
+     * @return this
+     */
+    public CatalogValidator hashes(boolean hashes) {
+        this.hashes = hashes;
+        return this;
+    }
+
+    /**
+     * loadCapabilities()
+     *
+     * @param file one capability per line as key or key=value, ie exported from the agent capability pages; a key
+     *        may be listed once per value; # starts a comment
+     * @return values per capability key, an empty set for keys listed without a value
+     */
+    public static Map<String, Set<String>> loadCapabilities(Path file) throws IOException {
+        Map<String, Set<String>> capabilities = new HashMap<String, Set<String>>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String capability = line.trim();
+            if (capability.isEmpty() || capability.startsWith("#")) {
+                continue;
+            }
+            int split = capability.indexOf('=');
+            String key = split < 0 ? capability : capability.substring(0, split).trim();
+            Set<String> values = capabilities.computeIfAbsent(key, k -> new HashSet<String>());
+            if (split >= 0) {
+                values.add(capability.substring(split + 1).trim());
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * matches()
+     *
+     * @param values values of the capability key
+     * @param matchType EXISTS, EQUALS or MATCHES
+     * @param matchValue value for EQUALS and MATCHES
+     * @return true if one of the values satisfies the requirement
+     */
+    static boolean matches(Set<String> values, String matchType, String matchValue) {
+        String value = matchValue == null ? "" : matchValue;
+        if (matchType == null || matchType.equals("EXISTS")) {
+            return true;
+        }
+        if (matchType.equals("EQUALS")) {
+            return values.contains(value);
+        }
+        try {
+            Pattern pattern = Pattern.compile(value);
+            for (String candidate : values) {
+                if (pattern.matcher(candidate).matches()) {
+                    return true;
+                }
+            }
+        } catch (PatternSyntaxException e) {
+            // Bamboo would never match an invalid pattern either
+        }
+        return false;
+    }
+
+    /**
+     * validate()
+     *
+     * @param plans catalog to validate
+     * @return Report listing every problem found
+     */
+    public Report validate(List<Plan> plans) {
+        long start = System.nanoTime();
+        List<Summary> summaries = pool.invoke(new BuildTask(plans, 0, plans.size(), hashes));
+
+        Report report = new Report(plans.size());
+        Map<String, String> planKeys = new HashMap<String, String>();
+        Map<String, String> planNames = new HashMap<String, String>();
+        for (Summary summary : summaries) {
+            if (summary.error != null) {
+                report.invalid.add(summary.key + ": " + summary.error);
+                continue;
+            }
+            if (planKeys.putIfAbsent(summary.key, summary.name) != null) {
+                report.duplicates.add(summary.key + ": plan key used by more than one plan");
+            }
+            String projectName = summary.projectKey + "/" + summary.name;
+            if (planNames.putIfAbsent(projectName, summary.key) != null && !summary.key.equals(planNames.get(projectName))) {
+                report.duplicates.add(summary.key + ": plan name '" + summary.name + "' already used by " + planNames.get(projectName));
+            }
+            if (summary.hash != null) {
+                report.hashes.put(summary.key, summary.hash);
+            }
+            report.duplicates.addAll(summary.duplicateJobs);
+            report.missingArtifacts.addAll(summary.missingArtifacts);
+            if (capabilities != null) {
+                for (String[] requirement : summary.requirements) {
+                    Set<String> values = capabilities.get(requirement[1]);
+                    String match = requirement[2] + (requirement[3] == null || requirement[3].isEmpty() ? "" : " " + requirement[3]);
+                    if (values == null) {
+                        report.unmetRequirements.add(requirement[0] + ": no agent provides '" + requirement[1] + "'");
+                    } else if (!"EXISTS".equals(requirement[2]) && values.isEmpty()) {
+                        report.uncheckedRequirements.add(requirement[0] + ": values of '" + requirement[1] + "' unknown, "
+                                + match + " not checked");
+                    } else if (!matches(values, requirement[2], requirement[3])) {
+                        report.unmetRequirements.add(requirement[0] + ": no agent provides '" + requirement[1] + "' " + match);
+                    }
+                }
+            }
+        }
+        report.millis = (System.nanoTime() - start) / 1000000;
+        return report;
+    }
+
+    /**
+     * summarize()
+     *
+     * Builds one plan and its permissions and reduces the plan to what the cross plan checks need.
+     *
+     * @param plan
+     * @param hash true to also compute the SpecCache hash of the built properties
+     * @return Summary of the plan, with 'error' set if it does not build
+     */
+    static Summary summarize(Plan plan, boolean hash) {
+        Summary summary = new Summary();
+        try {
+            summary.key = PlanPublisher.key(plan);
+            PlanProperties properties = EntityPropertiesBuilders.build(plan);
+            PlanPermissionsProperties permissions = EntityPropertiesBuilders.build(PlanPublisher.permissions(plan));
+            if (hash) {
+                summary.hash = SpecCache.hash(properties, permissions);
+            }
+
+            summary.projectKey = properties.getProject().getKey().getKey();
+            summary.name = properties.getName();
+            Set<String> jobKeys = new HashSet<String>();
+            Set<String> shared = new HashSet<String>();
+            for (StageProperties stage : properties.getStages()) {
+                Set<String> sharedByStage = new HashSet<String>();
+                for (JobProperties job : stage.getJobs()) {
+                    String jobKey = summary.key + "-" + job.getKey().getKey();
+                    if (!jobKeys.add(job.getKey().getKey())) {
+                        summary.duplicateJobs.add(jobKey + ": job key used twice in the plan");
+                    }
+                    for (ArtifactSubscriptionProperties subscription : job.getArtifactSubscriptions()) {
+                        if (!shared.contains(subscription.getArtifactName())) {
+                            summary.missingArtifacts.add(jobKey + ": no earlier stage shares artifact '" + subscription.getArtifactName() + "'");
+                        }
+                    }
+                    for (ArtifactProperties artifact : job.getArtifacts()) {
+                        if (artifact.isShared()) {
+                            sharedByStage.add(artifact.getName());
+                        }
+                    }
+                    for (RequirementProperties requirement : job.getRequirements()) {
+                        summary.requirements.add(new String[] { jobKey, requirement.getKey(),
+                                requirement.getMatchType() == null ? "EXISTS" : requirement.getMatchType().name(), requirement.getMatchValue() });
+                    }
+                }
+                shared.addAll(sharedByStage);
+            }
+        } catch (RuntimeException e) {
+            if (summary.key == null) {
+                summary.key = "plan " + plan.getKey();  // no identifier, ie the project has no key
+            }
+            summary.error = e.getMessage();
+        }
+        return summary;
+    }
+
+    /**
+     * Summary class definition.  What validate() needs to know about one built plan.
+     */
+    static class Summary {
+        String key;
+        String projectKey;
+        String name;
+        String error;
+        String hash;
+        final List<String> duplicateJobs = new ArrayList<String>();
+        final List<String> missingArtifacts = new ArrayList<String>();
+        final List<String[]> requirements = new ArrayList<String[]>();
+    }
+
+    /**
+     * BuildTask class definition.  Summarizes plans [from, to), splitting while more than THRESHOLD are left.
+     */
+    private static class BuildTask extends RecursiveTask<List<Summary>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Plan> plans;
+        private final int from;
+        private final int to;
+        private final boolean hash;
+
+        BuildTask(List<Plan> plans, int from, int to, boolean hash) {
+            this.plans = plans;
+            this.from = from;
+            this.to = to;
+            this.hash = hash;
+        }
+
+        @Override
+        protected List<Summary> compute() {
+            if (to - from <= THRESHOLD) {
+                List<Summary> summaries = new ArrayList<Summary>(to - from);
+                for (int i=from; i<to; i++) {
+                    summaries.add(summarize(plans.get(i), hash));
+                }
+                return summaries;
+            }
+            int middle = (from + to) >>> 1;
+            BuildTask left = new BuildTask(plans, from, middle, hash);
+            left.fork();
+            List<Summary> summaries = new BuildTask(plans, middle, to, hash).compute();
+            List<Summary> all = left.join();
+            all.addAll(summaries);
+            return all;
+        }
+    }
+
+    /**
+     * Report class definition.  Problems found by validate(), each list sorted by plan order.
+     */
+    public static class Report {
+
+        private final int planCount;
+        private final List<String> invalid = new ArrayList<String>();
+        private final List<String> duplicates = new ArrayList<String>();
+        private final List<String> missingArtifacts = new ArrayList<String>();
+        private final List<String> unmetRequirements = new ArrayList<String>();
+        private final List<String> uncheckedRequirements = new ArrayList<String>();
+        private final Map<String, String> hashes = new HashMap<String, String>();
+        private long millis;
+
+        Report(int planCount) {
+            this.planCount = planCount;
+        }
+
+        public List<String> getInvalid() {
+            return Collections.unmodifiableList(invalid);
+        }
+
+        public List<String> getDuplicates() {
+            return Collections.unmodifiableList(duplicates);
+        }
+
+        public List<String> getMissingArtifacts() {
+            return Collections.unmodifiableList(missingArtifacts);
+        }
+
+        public List<String> getUnmetRequirements() {
+            return Collections.unmodifiableList(unmetRequirements);
+        }
+
+        /**
+         * getUncheckedRequirements()
+         *
+         * @return EQUALS and MATCHES requirements on capabilities given without values; not counted as problems
+         */
+        public List<String> getUncheckedRequirements() {
+            return Collections.unmodifiableList(uncheckedRequirements);
+        }
+
+        /**
+         * getHashes()
+         *
+         * @return SpecCache hash per plan key (projectKey-planKey) of every plan that built, empty unless hashes() was set
+         */
+        public Map<String, String> getHashes() {
+            return Collections.unmodifiableMap(hashes);
+        }
+
+        /**
+         * getProblems()
+         *
+         * @return every problem of every kind
+         */
+        public List<String> getProblems() {
+            List<String> problems = new ArrayList<String>(invalid);
+            problems.addAll(duplicates);
+            problems.addAll(missingArtifacts);
+            problems.addAll(unmetRequirements);
+            return problems;
+        }
+
+        public boolean isClean() {
+            return getProblems().isEmpty();
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return "plans: " + planCount + ", invalid: " + invalid.size() + ", duplicates: " + duplicates.size()
+                    + ", missing artifacts: " + missingArtifacts.size() + ", unmet requirements: " + unmetRequirements.size()
+                    + (uncheckedRequirements.isEmpty() ? "" : ", unchecked requirements: " + uncheckedRequirements.size())
+                    + ", " + millis + " ms";
+        }
+    }
+}
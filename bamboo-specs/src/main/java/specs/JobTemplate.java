@@ -0,0 +1,213 @@
+/**
+ * JobTemplate.java
+ *
+ * Immutable description of a job shared by many generated plans.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.atlassian.bamboo.specs.api.builders.BambooKey;
+import com.atlassian.bamboo.specs.api.builders.plan.Job;
+import com.atlassian.bamboo.specs.api.builders.plan.artifact.Artifact;
+import com.atlassian.bamboo.specs.api.builders.plan.configuration.AllOtherPluginsConfiguration;
+import com.atlassian.bamboo.specs.api.builders.requirement.Requirement;
+import com.atlassian.bamboo.specs.api.builders.task.Task;
+
+/**
+ * JobTemplate class definition.  Holds what a Job is made of as plain data: name, key and description, the
+ * AllOtherPluginsConfiguration map (ie the clover settings), ArtifactSpecs, requirements as { key, matchType,
+ * matchValue } and TaskFactories.  The Bamboo builders are mutable, so none is kept: toJob() creates a new Job from
+ * the data on every call, and changing one plan's Job can never reach another plan.  The with...() methods return a
+ * new template sharing everything it does not replace.
+ *
+ */
+public final class JobTemplate {
+
+    /**
+     * TaskFactory interface definition.  Creates a new Task builder on every call.
+     */
+    public interface TaskFactory {
+        Task<?, ?> create();
+    }
+
+    /**
+     * ArtifactSpec class definition.  The fields of an Artifact; location may be null.
+     */
+    public static final class ArtifactSpec {
+
+        private final String name;
+        private final String copyPattern;
+        private final String location;
+        private final boolean shared;
+
+        public ArtifactSpec(String name, String copyPattern, String location, boolean shared) {
+            this.name = name;
+            this.copyPattern = copyPattern;
+            this.location = location;
+            this.shared = shared;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        Artifact toArtifact() {
+            Artifact artifact = new Artifact().name(name).copyPattern(copyPattern).shared(shared);
+            if (location != null) {
+                artifact.location(location);
+            }
+            return artifact;
+        }
+    }
+
+    private final String name;
+    private final String key;
+    private final String description;
+    private final Map<String, Object> pluginConfiguration;
+    private final ArtifactSpec[] artifacts;
+    private final TaskFactory[] tasks;
+    private final TaskFactory[] finalTasks;
+    private final String[][] requirements;
+
+    /**
+     * @param name job name, ie "Production Package"
+     * @param key job key, ie "PPJOB"
+     */
+    public JobTemplate(String name, String key) {
+        this(name, key, null, null, new ArtifactSpec[0], new TaskFactory[0], new TaskFactory[0], new String[0][]);
+    }
+
+    private JobTemplate(String name, String key, String description, Map<String, Object> pluginConfiguration,
+            ArtifactSpec[] artifacts, TaskFactory[] tasks, TaskFactory[] finalTasks, String[][] requirements) {
+        this.name = name;
+        this.key = key;
+        this.description = description;
+        this.pluginConfiguration = pluginConfiguration;
+        this.artifacts = artifacts;
+        this.tasks = tasks;
+        this.finalTasks = finalTasks;
+        this.requirements = requirements;
+    }
+
+    public JobTemplate withDescription(String description) {
+        return new JobTemplate(name, key, description, pluginConfiguration, artifacts, tasks, finalTasks, requirements);
+    }
+
+    /**
+     * withPluginConfiguration()
+     *
+     * @param configuration AllOtherPluginsConfiguration map, ie from MapBuilder; copied, nested maps included
+     * @return new template with this configuration
+     */
+    public JobTemplate withPluginConfiguration(Map<String, Object> configuration) {
+        return new JobTemplate(name, key, description, Collections.unmodifiableMap(copy(configuration)), artifacts, tasks,
+                finalTasks, requirements);
+    }
+
+    /**
+     * withArtifacts()
+     *
+     * @param more artifacts to add after the existing ones
+     * @return new template with all artifacts
+     */
+    public JobTemplate withArtifacts(ArtifactSpec... more) {
+        if (more.length == 0) {
+            return this;
+        }
+        ArtifactSpec[] all = Arrays.copyOf(artifacts, artifacts.length + more.length);
+        System.arraycopy(more, 0, all, artifacts.length, more.length);
+        return new JobTemplate(name, key, description, pluginConfiguration, all, tasks, finalTasks, requirements);
+    }
+
+    public JobTemplate withTasks(TaskFactory... tasks) {
+        return new JobTemplate(name, key, description, pluginConfiguration, artifacts, tasks.clone(), finalTasks, requirements);
+    }
+
+    public JobTemplate withFinalTasks(TaskFactory... finalTasks) {
+        return new JobTemplate(name, key, description, pluginConfiguration, artifacts, tasks, finalTasks.clone(), requirements);
+    }
+
+    /**
+     * withRequirement()
+     *
+     * @param key requirement key, ie package_release
+     * @param matchType EXISTS, EQUALS or MATCHES
+     * @param matchValue value for EQUALS and MATCHES, otherwise null
+     * @return new template with the requirement added after the existing ones
+     */
+    public JobTemplate withRequirement(String key, Requirement.MatchType matchType, String matchValue) {
+        String[][] all = Arrays.copyOf(requirements, requirements.length + 1);
+        all[requirements.length] = new String[] { key, matchType.name(), matchValue };
+        return new JobTemplate(name, this.key, description, pluginConfiguration, artifacts, tasks, finalTasks, all);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * toJob()
+     *
+     * @return new Job built from this template; the caller may modify it
+     */
+    public Job toJob() {
+        Artifact[] builtArtifacts = new Artifact[artifacts.length];
+        for (int i=0; i<artifacts.length; i++) {
+            builtArtifacts[i] = artifacts[i].toArtifact();
+        }
+        Requirement[] builtRequirements = new Requirement[requirements.length];
+        for (int i=0; i<requirements.length; i++) {
+            builtRequirements[i] = new Requirement(requirements[i][0]).matchType(Requirement.MatchType.valueOf(requirements[i][1]));
+            if (requirements[i][2] != null) {
+                builtRequirements[i].matchValue(requirements[i][2]);
+            }
+        }
+        Job job = new Job(name, new BambooKey(key))
+                .artifacts(builtArtifacts)
+                .tasks(create(tasks))
+                .finalTasks(create(finalTasks))
+                .requirements(builtRequirements);
+        if (pluginConfiguration != null) {
+            job.pluginConfigurations(new AllOtherPluginsConfiguration().configuration(copy(pluginConfiguration)));
+        }
+        if (description != null) {
+            job.description(description);
+        }
+        return job;
+    }
+
+    private static Task<?, ?>[] create(TaskFactory[] factories) {
+        Task<?, ?>[] created = new Task<?, ?>[factories.length];
+        for (int i=0; i<factories.length; i++) {
+            created[i] = factories[i].create();
+        }
+        return created;
+    }
+
+    /**
+     * copy()
+     *
+     * @param map configuration map
+     * @return new LinkedHashMap with the same entries, nested maps copied the same way
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> copy(Map<String, Object> map) {
+        Map<String, Object> copy = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            copy.put(entry.getKey(), value instanceof Map ? copy((Map<String, Object>) value) : value);
+        }
+        return copy;
+    }
+}
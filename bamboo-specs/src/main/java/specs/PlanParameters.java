@@ -0,0 +1,146 @@
+/**
+ * PlanParameters.java
+ *
+ * One row of the plan parameter table, from which PlanSpec generates a plan.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PlanParameters class definition.  The parameter table is a tab separated file, one plan per line:
+ *
+ * <pre>
+ * # project  planKey  planName            jobs                 artifacts
+ * DVOPS      BSTEST   BambooSpecs-Test    integration,package
+ * DVOPS      CMPA     Component-A         package              Schemas|**&#47;*.xsd|schema;Docs|**&#47;*|docs
+ * </pre>
+ *
+ * 'jobs' lists the job templates to include ('integration' for Integration Tests, 'package' for Production Package)
+ * and defaults to both.  'artifacts' is an optional ';' separated list of name|copyPattern|location, shared with
+ * later stages and added to the Production Package job.  Blank lines and lines starting with # are ignored.
+ *
+ */
+public class PlanParameters {
+
+    public static final String DEFAULT_FILE = "plans.tsv";
+    public static final String INTEGRATION = "integration";
+    public static final String PACKAGE = "package";
+
+    private final String projectKey;
+    private final String planKey;
+    private final String planName;
+    private final List<String> jobs;
+    private final List<String[]> artifacts;
+
+    public PlanParameters(String projectKey, String planKey, String planName, List<String> jobs, List<String[]> artifacts) {
+        this.projectKey = projectKey;
+        this.planKey = planKey;
+        this.planName = planName;
+        this.jobs = Collections.unmodifiableList(new ArrayList<String>(jobs));
+        this.artifacts = Collections.unmodifiableList(new ArrayList<String[]>(artifacts));
+    }
+
+    /**
+     * load()
+     *
+     * @param file parameter table
+     * @return one PlanParameters per row, in file order
+     * @throws IllegalArgumentException naming the line of a malformed row
+     */
+    public static List<PlanParameters> load(Path file) throws IOException {
+        List<PlanParameters> rows = new ArrayList<PlanParameters>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                    continue;
+                }
+                try {
+                    rows.add(parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file + ":" + number + ": " + e.getMessage());
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * parse()
+     *
+     * @param line one tab separated row
+     * @return PlanParameters of the row
+     */
+    static PlanParameters parse(String line) {
+        String[] columns = line.split("\t");
+        if (columns.length < 3) {
+            throw new IllegalArgumentException("expected project, planKey and planName, got '" + line + "'");
+        }
+        List<String> jobs = Arrays.asList(INTEGRATION, PACKAGE);
+        if (columns.length > 3 && !columns[3].trim().isEmpty()) {
+            jobs = new ArrayList<String>();
+            for (String job : columns[3].split(",")) {
+                String name = job.trim();
+                if (!name.equals(INTEGRATION) && !name.equals(PACKAGE)) {
+                    throw new IllegalArgumentException("unknown job template '" + name + "'");
+                }
+                jobs.add(name);
+            }
+        }
+        List<String[]> artifacts = new ArrayList<String[]>();
+        if (columns.length > 4 && !columns[4].trim().isEmpty()) {
+            for (String artifact : columns[4].split(";")) {
+                String[] fields = artifact.trim().split("\\|", -1);
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("artifact must be name|copyPattern|location, got '" + artifact + "'");
+                }
+                artifacts.add(fields);
+            }
+        }
+        return new PlanParameters(columns[0].trim(), columns[1].trim(), columns[2].trim(), jobs, artifacts);
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public String getPlanKey() {
+        return planKey;
+    }
+
+    public String getPlanName() {
+        return planName;
+    }
+
+    public List<String> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * getArtifacts()
+     *
+     * @return extra artifacts, each as { name, copyPattern, location }
+     */
+    public List<String[]> getArtifacts() {
+        return artifacts;
+    }
+
+    @Override
+    public String toString() {
+        return projectKey + "-" + planKey;
+    }
+}
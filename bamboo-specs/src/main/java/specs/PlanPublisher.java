@@ -0,0 +1,175 @@
+/**
+ * PlanPublisher.java
+ *
+ * Validates and publishes many generated plans, and their permissions, concurrently.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.atlassian.bamboo.specs.api.builders.permission.PlanPermissions;
+import com.atlassian.bamboo.specs.api.builders.plan.Plan;
+import com.atlassian.bamboo.specs.util.BambooServer;
+
+/**
+ * PlanPublisher class definition.  validate() builds the properties of every plan and its permissions in parallel
+ * (see CatalogValidator), so a broken row is reported before anything is sent to Bamboo.  publish() then sends each plan followed by
+ * its permissions from a fixed pool of 'parallelism' workers.  BambooServer keeps per-instance connection state, so
+ * every worker thread publishes through its own instance.
+ *
+ * With a SpecCache set, a plan whose content hash matches the one last published is skipped, and the cache is
+ * updated as each plan is published.  The hashes computed by CatalogValidator can be handed to publish(), otherwise
+ * each plan is built again to hash it.
+ *
+ * Credentials are read from the '.credentials' file, as for PlanSpec.main().
+ *
+ */
+public class PlanPublisher {
+
+    private final String baseUrl;
+    private final int parallelism;
+    private final ThreadLocal<BambooServer> servers;
+    private final AtomicInteger published = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private SpecCache cache;
+
+    /**
+     * @param baseUrl Bamboo base URL, ie https://host/bamboo
+     * @param parallelism maximum number of plans published at the same time
+     */
+    public PlanPublisher(String baseUrl, int parallelism) {
+        this.baseUrl = baseUrl;
+        this.parallelism = Math.max(1, parallelism);
+        this.servers = ThreadLocal.withInitial(() -> new BambooServer(this.baseUrl));
+    }
+
+    /**
+     * cache()
+     *
+     * Sets the SpecCache used to skip unchanged plans.  Without one every plan is published.
+     *
+     * @param cache
+     * @return this
+     */
+    public PlanPublisher cache(SpecCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * validate()
+     *
+     * Performs the offline validation of PlanSpecTest for every plan and its permissions, in parallel, plus the
+     * cross plan checks of CatalogValidator (without agent capabilities).
+     *
+     * @param plans
+     * @return one message per problem, empty if all plans are valid
+     */
+    public List<String> validate(List<Plan> plans) {
+        return new CatalogValidator().validate(plans).getProblems();
+    }
+
+    /**
+     * publish()
+     *
+     * Publishes every plan and then its permissions, at most 'parallelism' plans at a time.  A failed plan does not
+     * stop the others.
+     *
+     * @param plans
+     * @return one message per plan that failed to publish, in plan order
+     */
+    public List<String> publish(List<Plan> plans) throws InterruptedException {
+        return publish(plans, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * publish()
+     *
+     * Same as publish(List), reusing the SpecCache hashes already computed for the plans.
+     *
+     * @param plans
+     * @param hashes hash per plan key, see CatalogValidator.Report.getHashes(); plans missing from it are hashed here
+     * @return one message per plan that failed to publish, in plan order
+     */
+    public List<String> publish(List<Plan> plans, Map<String, String> hashes) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<String> errors = new ArrayList<String>();
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (Plan plan : plans) {
+                futures.add(executor.submit(() -> publish(plan, hashes.get(key(plan)))));
+            }
+            for (int i=0; i<futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    errors.add(key(plans.get(i)) + ": " + e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return errors;
+    }
+
+    /**
+     * publish()
+     *
+     * Publishes one plan and its permissions through the BambooServer of the calling thread, unless the cache
+     * shows they are unchanged.
+     *
+     * @param plan
+     * @param hash SpecCache hash of the plan, or null to compute it
+     */
+    void publish(Plan plan, String hash) {
+        PlanPermissions permissions = permissions(plan);
+        if (cache != null) {
+            if (hash == null) {
+                hash = SpecCache.hash(plan, permissions);
+            }
+            if (cache.isUnchanged(key(plan), hash)) {
+                skipped.incrementAndGet();
+                return;
+            }
+        }
+        BambooServer server = servers.get();
+        server.publish(plan);
+        server.publish(permissions);
+        published.incrementAndGet();
+        if (cache != null) {
+            cache.put(key(plan), hash);
+        }
+    }
+
+    public int getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * getSkippedCount()
+     *
+     * @return number of plans not published because they were unchanged
+     */
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    static PlanPermissions permissions(Plan plan) {
+        return new PlanSpec().createPlanPermission(plan.getIdentifier());
+    }
+
+    static String key(Plan plan) {
+        return plan.getIdentifier().getProjectKey() + "-" + plan.getIdentifier().getPlanKey();  // BambooKey.toString() is the key
+    }
+}
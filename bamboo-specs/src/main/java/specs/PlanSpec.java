@@ -2,29 +2,26 @@
  * PlanSpec.java
  * 
  * Bamboo spec class that allows Bamboo plan to be defined (via the Plan type) and published.
- * The publish() operation will create the plan new OR overwrite any existing plan.
+ * The publish() operation will create the plan new OR overwrite any existing plan, so plans unchanged since they
+ * were last published from this machine are skipped (see SpecCache).
  * 
  * @author michael.howard
  * 
  */
 package specs;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import com.atlassian.bamboo.specs.api.BambooSpec;
-import com.atlassian.bamboo.specs.api.builders.plan.Job;
 import com.atlassian.bamboo.specs.api.builders.plan.Plan;
 import com.atlassian.bamboo.specs.api.builders.plan.PlanIdentifier;
-import com.atlassian.bamboo.specs.api.builders.plan.Stage;
-import com.atlassian.bamboo.specs.api.builders.plan.artifact.Artifact;
-import com.atlassian.bamboo.specs.api.builders.plan.configuration.AllOtherPluginsConfiguration;
 import com.atlassian.bamboo.specs.api.builders.plan.configuration.ConcurrentBuilds;
 import com.atlassian.bamboo.specs.api.builders.project.Project;
-import com.atlassian.bamboo.specs.api.builders.requirement.Requirement;
-import com.atlassian.bamboo.specs.builders.task.AntTask;
-import com.atlassian.bamboo.specs.builders.task.CommandTask;
-import com.atlassian.bamboo.specs.util.BambooServer;
-import com.atlassian.bamboo.specs.util.MapBuilder;
 import com.atlassian.bamboo.specs.api.builders.permission.Permissions;
-import com.atlassian.bamboo.specs.api.builders.BambooKey;
 import com.atlassian.bamboo.specs.api.builders.permission.PermissionType;
 import com.atlassian.bamboo.specs.api.builders.permission.PlanPermissions;
 
@@ -32,29 +29,119 @@ import com.atlassian.bamboo.specs.api.builders.permission.PlanPermissions;
  * PlanSpec class definition.  The plan configuration for Bamboo.
  * Provides methods to configure a Bamboo build plan, plan permissions and a Bamboo server.
  * The final step is to publis to this server to make the plan active in Bamboo.
+ * Many similar plans can be generated from a parameter table (see PlanParameters) and published by PlanPublisher.
  * Learn more on: <a href="https://confluence.atlassian.com/display/BAMBOO/Bamboo+Specs">https://confluence.atlassian.com/display/BAMBOO/Bamboo+Specs</a>
  */
 @BambooSpec
 public class PlanSpec {
 
-    public static String baseUrl = "https://bamboo.trustvesta.com/bamboo";
+    public static final String DEFAULT_URL = "https://bamboo.trustvesta.com/bamboo";
     public static String user = "michael.howard";
     public static String project = "DVOPS";
     public static String shortPlanName = "BambooSpecs-Test";
     public static String shortPlanKey = "BSTEST";
     
+    private String baseUrl = DEFAULT_URL;
+    private int parallelism = 8;
+    private String specCacheFile = SpecCache.DEFAULT_FILE;  // null publishes every plan
+    private String capabilitiesFile = null;  // ie ".capabilities", one agent capability key or key=value per line
+
     /**
-     * Run main to publish plan on Bamboo
+     * Run main to publish plan on Bamboo.  With a plan parameter table as argument (see PlanParameters) every plan in
+     * the table is generated instead.  Plans are validated first, then published with their permissions by a
+     * PlanPublisher, skipping any plan that has not changed since it was last published (see SpecCache).
      */
     public static void main(final String[] args) throws Exception {
+        PlanSpec spec = new PlanSpec();
+        List<Plan> plans = new ArrayList<Plan>();
+        if (args.length > 0) {
+            for (PlanParameters parameters : PlanParameters.load(Paths.get(args[0]))) {
+                plans.add(spec.createPlan(parameters));
+            }
+        } else {
+            plans.add(spec.createPlan());
+        }
+        spec.publish(plans);
+    }
+
+    /**
+     * baseUrl()
+     *
+     * @param baseUrl Bamboo server to publish to, ie https://host/bamboo
+     * @return this
+     */
+    public PlanSpec baseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+        return this;
+    }
+
+    public PlanSpec parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * specCacheFile()
+     *
+     * @param specCacheFile SpecCache file, null to publish every plan
+     * @return this
+     */
+    public PlanSpec specCacheFile(String specCacheFile) {
+        this.specCacheFile = specCacheFile;
+        return this;
+    }
+
+    /**
+     * capabilitiesFile()
+     *
+     * @param capabilitiesFile agent capabilities the job requirements are checked against, see
+     *        CatalogValidator.loadCapabilities(); null to not check requirements
+     * @return this
+     */
+    public PlanSpec capabilitiesFile(String capabilitiesFile) {
+        this.capabilitiesFile = capabilitiesFile;
+        return this;
+    }
+
+    /**
+     * publish()
+     *
+     * Validates the plans with a CatalogValidator and, if they are all valid, publishes them with their permissions
+     * through a PlanPublisher.  The validator also hashes the plans it builds, so the publisher checks the SpecCache
+     * without building them again.
+     *
+     * @param plans
+     * @return one message per problem or failed plan, empty if every plan was published or unchanged
+     */
+    List<String> publish(List<Plan> plans) throws Exception {
         //By default credentials are read from the '.credentials' file.
-        BambooServer bambooServer = new BambooServer(baseUrl);
-        
-        // Define and publish the Bamboo Spec
-        Plan plan = new PlanSpec().createPlan();
-        bambooServer.publish(plan);
-        PlanPermissions planPermission = new PlanSpec().createPlanPermission(plan.getIdentifier());
-        bambooServer.publish(planPermission);
+        PlanPublisher publisher = new PlanPublisher(baseUrl, parallelism);
+        SpecCache cache = specCacheFile == null ? null : new SpecCache(Paths.get(specCacheFile)).load();
+        publisher.cache(cache);
+
+        // Validate and publish the Bamboo Specs
+        CatalogValidator validator = new CatalogValidator().hashes(cache != null);
+        if (capabilitiesFile != null) {
+            validator.capabilities(CatalogValidator.loadCapabilities(Paths.get(capabilitiesFile)));
+        }
+        CatalogValidator.Report report = validator.validate(plans);
+        System.out.println(report);
+        List<String> errors = report.getProblems();
+        if (errors.isEmpty()) {
+            try {
+                errors = publisher.publish(plans, report.getHashes());
+            } finally {
+                if (cache != null) {
+                    cache.save();
+                }
+            }
+        }
+        System.out.println("plans: " + plans.size() + ", published: " + publisher.getPublishedCount()
+                + ", unchanged: " + publisher.getSkippedCount() + ", errors: " + errors.size());
+        for (String error : errors) {
+            System.out.println(error);
+        }
+        return errors;
     }
     
     /**
@@ -89,6 +176,17 @@ public class PlanSpec {
                 .key(project);
     }
 
+    /**
+     * project()
+     *
+     * @param projectKey key of an existing Bamboo project
+     * @return Project object for a generated plan
+     *
+     */
+    Project project(String projectKey) {
+        return projectKey.equals(project) ? project() : new Project().key(projectKey);
+    }
+
     /**
      * createPlan()
      * 
@@ -99,101 +197,24 @@ public class PlanSpec {
      * 
      */
     Plan createPlan() {
-        return new Plan(project(), shortPlanName, shortPlanKey)
-                .description("Build plan for " + shortPlanName)
+        return createPlan(new PlanParameters(project, shortPlanKey, shortPlanName,
+                Arrays.asList(PlanParameters.INTEGRATION, PlanParameters.PACKAGE), Collections.<String[]>emptyList()));
+    }
+
+    /**
+     * createPlan()
+     *
+     * Create the Plan object for one row of the plan parameter table.  The stage is built from the StageTemplate that
+     * PlanTemplates shares with every other plan using the same job templates and artifacts.
+     *
+     * @param parameters project, plan key and name, job templates and extra artifacts
+     * @return Plan object representing the Bamboo build plan.
+     *
+     */
+    Plan createPlan(PlanParameters parameters) {
+        return new Plan(project(parameters.getProjectKey()), parameters.getPlanName(), parameters.getPlanKey())
+                .description("Build plan for " + parameters.getPlanName())
                 .pluginConfigurations(new ConcurrentBuilds().useSystemWideDefault(false))
-                .stages(new Stage("Default Stage")
-                        .jobs(new Job("Integration Tests", new BambooKey("ITJOB"))
-                                .description("Deploy component and all dependencies using OCD and execute GRT.")
-                                .pluginConfigurations(new AllOtherPluginsConfiguration()
-                                        .configuration(new MapBuilder()
-                                                .put("repositoryDefiningWorkingDirectory", -1)
-                                                .put("custom", new MapBuilder()
-                                                    .put("auto", new MapBuilder()
-                                                        .put("regex", "")
-                                                        .put("label", "")
-                                                        .build())
-                                                    .put("buildHangingConfig.enabled", "false")
-                                                    .put("ncover.path", "")
-                                                    .put("clover", new MapBuilder()
-                                                        .put("path", "target/site/clover/clover.xml")
-                                                        .put("license", "")
-                                                        .put("integration", "custom")
-                                                        .put("exists", "true")
-                                                        .build())
-                                                    .build())
-                                                .build()))
-                                .artifacts(new Artifact()
-                                        .name("VSF Test Report (html)")
-                                        .copyPattern("grt_summary.htm")
-                                        .location("Tests/vsf"),
-                                    new Artifact()
-                                        .name("Clover Report (System)")
-                                        .copyPattern("**/*.*")
-                                        .location("target/site/clover"))
-                                .tasks(//new VcsCheckoutTask()
-                                        //.description("Checkout Default Repository")
-                                        //.checkoutItems(new CheckoutItem().defaultRepository()),
-                                    new CommandTask()
-                                        .description("Deploy Stack (OCD)")
-                                        .executable("ocd")
-                                        .argument("DeployAll"),
-                                    new AntTask()
-                                        .description("Deploy Instrumented Apps (Clover)")
-                                        .target("clover.deploy -Dport=8002")
-                                        .jdk("JDK 1.8")
-                                        .executableLabel("Ant"),
-                                    new CommandTask()
-                                        .description("Integration Tests (GRT)")
-                                        .executable("grt")
-                                        .argument("-n --junit junit.xml")
-                                        .workingSubdirectory("Tests/vsf"))
-                                .finalTasks(new AntTask()
-                                        .description("Produce Clover Report")
-                                        .target("clover.report")
-                                        .jdk("JDK 1.8")
-                                        .executableLabel("Ant") ),
-//                                    new TestParserTask(TestParserTaskProperties.TestType.JUNIT)
-//                                        .description("grt junit parse results")
-//                                        .resultDirectories("Tests/vsf/junit.xml")),
-                            new Job("Production Package",
-                                new BambooKey("PPJOB"))
-                                .pluginConfigurations(new AllOtherPluginsConfiguration()
-                                        .configuration(new MapBuilder()
-                                                .put("repositoryDefiningWorkingDirectory", -1)
-                                                .build()))
-                                .artifacts(new Artifact()
-                                        .name("Package")
-                                        .copyPattern("**/*")
-                                        .location("dist")
-                                        .shared(true),
-                                    new Artifact()
-                                        .name("Properties")
-                                        .copyPattern("**/*")
-                                        .location("etc"),
-                                    new Artifact()
-                                        .name("SIM Properties")
-                                        .copyPattern("**/*")
-                                        .location("sim/etc"),
-                                    new Artifact()
-                                        .name("Code Analysis Reports")
-                                        .copyPattern("**/*")
-                                        .location("analysis_results"),
-                                    new Artifact()
-                                        .name("POM")
-                                        .copyPattern("pom.xml")
-                                        .shared(true))
-                                .tasks(//new VcsCheckoutTask()
-                                        //.description("Checkout Default Repository")
-                                        //.checkoutItems(new CheckoutItem().defaultRepository()),
-                                    new AntTask()
-                                        .description("Package")
-                                        .target("package findbugs pmd checkstyle")
-                                        .jdk("JDK 1.8")
-                                        .executableLabel("Ant"))
-                                .requirements(new Requirement("package_release")
-                                        .matchType(Requirement.MatchType.EXISTS))
-                                )
-                        );
+                .stages(PlanTemplates.stage(parameters.getJobs(), parameters.getArtifacts()).toStage());
     }
 }
@@ -0,0 +1,152 @@
+/**
+ * PlanTemplates.java
+ *
+ * The job and stage templates from which PlanSpec generates plans.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.atlassian.bamboo.specs.api.builders.requirement.Requirement;
+import com.atlassian.bamboo.specs.builders.task.AntTask;
+import com.atlassian.bamboo.specs.builders.task.CommandTask;
+import com.atlassian.bamboo.specs.util.MapBuilder;
+
+import specs.JobTemplate.ArtifactSpec;
+
+/**
+ * PlanTemplates class definition.  INTEGRATION_TESTS and PRODUCTION_PACKAGE are described once when the class is
+ * loaded.  stage() returns one StageTemplate per distinct combination of job templates and extra artifacts, so plans
+ * generated from rows with the same 'jobs' and 'artifacts' columns (see PlanParameters) share one description, with
+ * its artifacts and clover configuration, instead of each assembling their own.  Every plan still gets its own Stage,
+ * Jobs and other builders from toStage().
+ *
+ */
+public final class PlanTemplates {
+
+    public static final String DEFAULT_STAGE = "Default Stage";
+
+    /**
+     * Deploys the component with OCD and runs GRT against clover instrumented apps.
+     */
+    public static final JobTemplate INTEGRATION_TESTS = new JobTemplate("Integration Tests", "ITJOB")
+            .withDescription("Deploy component and all dependencies using OCD and execute GRT.")
+            .withPluginConfiguration(new MapBuilder()
+                            .put("repositoryDefiningWorkingDirectory", -1)
+                            .put("custom", new MapBuilder()
+                                .put("auto", new MapBuilder()
+                                    .put("regex", "")
+                                    .put("label", "")
+                                    .build())
+                                .put("buildHangingConfig.enabled", "false")
+                                .put("ncover.path", "")
+                                .put("clover", new MapBuilder()
+                                    .put("path", "target/site/clover/clover.xml")
+                                    .put("license", "")
+                                    .put("integration", "custom")
+                                    .put("exists", "true")
+                                    .build())
+                                .build())
+                            .build())
+            .withArtifacts(new ArtifactSpec("VSF Test Report (html)", "grt_summary.htm", "Tests/vsf", false),
+                new ArtifactSpec("Clover Report (System)", "**/*.*", "target/site/clover", false))
+            .withTasks(//new VcsCheckoutTask()
+                    //.description("Checkout Default Repository")
+                    //.checkoutItems(new CheckoutItem().defaultRepository()),
+                () -> new CommandTask()
+                    .description("Deploy Stack (OCD)")
+                    .executable("ocd")
+                    .argument("DeployAll"),
+                () -> new AntTask()
+                    .description("Deploy Instrumented Apps (Clover)")
+                    .target("clover.deploy -Dport=8002")
+                    .jdk("JDK 1.8")
+                    .executableLabel("Ant"),
+                () -> new CommandTask()
+                    .description("Integration Tests (GRT)")
+                    .executable("grt")
+                    .argument("-n --junit junit.xml")
+                    .workingSubdirectory("Tests/vsf"))
+            .withFinalTasks(() -> new AntTask()
+                    .description("Produce Clover Report")
+                    .target("clover.report")
+                    .jdk("JDK 1.8")
+                    .executableLabel("Ant")
+//                , new TestParserTask(TestParserTaskProperties.TestType.JUNIT)
+//                    .description("grt junit parse results")
+//                    .resultDirectories("Tests/vsf/junit.xml")
+                    );
+
+    /**
+     * Packages the component and runs the code analysis reports.
+     */
+    public static final JobTemplate PRODUCTION_PACKAGE = new JobTemplate("Production Package", "PPJOB")
+            .withPluginConfiguration(new MapBuilder()
+                            .put("repositoryDefiningWorkingDirectory", -1)
+                            .build())
+            .withArtifacts(new ArtifactSpec("Package", "**/*", "dist", true),
+                new ArtifactSpec("Properties", "**/*", "etc", false),
+                new ArtifactSpec("SIM Properties", "**/*", "sim/etc", false),
+                new ArtifactSpec("Code Analysis Reports", "**/*", "analysis_results", false),
+                new ArtifactSpec("POM", "pom.xml", null, true))
+            .withTasks(//new VcsCheckoutTask()
+                    //.description("Checkout Default Repository")
+                    //.checkoutItems(new CheckoutItem().defaultRepository()),
+                () -> new AntTask()
+                    .description("Package")
+                    .target("package findbugs pmd checkstyle")
+                    .jdk("JDK 1.8")
+                    .executableLabel("Ant"))
+            .withRequirement("package_release", Requirement.MatchType.EXISTS, null);
+
+    private static final Map<String, StageTemplate> stages = new ConcurrentHashMap<String, StageTemplate>();
+
+    private PlanTemplates() {
+    }
+
+    /**
+     * stage()
+     *
+     * @param jobs job template names, see PlanParameters.INTEGRATION and PlanParameters.PACKAGE
+     * @param extraArtifacts shared artifacts added to the Production Package job, each as { name, copyPattern, location }
+     * @return the StageTemplate for this combination, shared by every caller asking for the same one
+     */
+    public static StageTemplate stage(List<String> jobs, List<String[]> extraArtifacts) {
+        boolean integration = jobs.contains(PlanParameters.INTEGRATION);
+        boolean production = jobs.contains(PlanParameters.PACKAGE);
+        StringBuilder key = new StringBuilder((integration ? "I" : "") + (production ? "P" : ""));
+        for (String[] extra : extraArtifacts) {
+            key.append('\t').append(String.join("|", extra));
+        }
+        return stages.computeIfAbsent(key.toString(), k -> {
+            JobTemplate[] templates = new JobTemplate[(integration ? 1 : 0) + (production ? 1 : 0)];
+            int i = 0;
+            if (integration) {
+                templates[i++] = INTEGRATION_TESTS;
+            }
+            if (production) {
+                ArtifactSpec[] extras = new ArtifactSpec[extraArtifacts.size()];
+                for (int a=0; a<extras.length; a++) {
+                    extras[a] = artifact(extraArtifacts.get(a));
+                }
+                templates[i++] = PRODUCTION_PACKAGE.withArtifacts(extras);
+            }
+            return new StageTemplate(DEFAULT_STAGE, templates);
+        });
+    }
+
+    /**
+     * artifact()
+     *
+     * @param fields { name, copyPattern, location }
+     * @return ArtifactSpec of a shared artifact
+     */
+    static ArtifactSpec artifact(String[] fields) {
+        return new ArtifactSpec(fields[0], fields[1], fields[2], true);
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * SpecCache.java
+ *
+ * Local on-disk record of what was last published for each plan, so unchanged plans are not published again.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.atlassian.bamboo.specs.api.builders.permission.PlanPermissions;
+import com.atlassian.bamboo.specs.api.builders.plan.Plan;
+import com.atlassian.bamboo.specs.api.model.permission.PlanPermissionsProperties;
+import com.atlassian.bamboo.specs.api.model.plan.PlanProperties;
+import com.atlassian.bamboo.specs.api.util.EntityPropertiesBuilders;
+import com.atlassian.bamboo.specs.util.BambooSpecProperties;
+import com.atlassian.bamboo.specs.util.Yamlizator;
+
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * SpecCache class definition.  The cache file (.speccache by default, next to .credentials) holds one tab separated
+ * line per plan:
+ *
+ * <pre>
+ * projectKey-planKey  sha256
+ * </pre>
+ *
+ * The hash covers the YAML dump (BambooSpecSerializer) of the built plan properties followed by that of the plan
+ * permissions.  The dump is produced from the validated properties rather than the builders, so it does not change
+ * with the order or style in which a spec was written, only with what would be sent to Bamboo.
+ *
+ * Publishing is an overwrite that makes Bamboo re-index the plan, so a plan whose hash matches the cache is
+ * skipped.  Delete the file (or remove a line) to force a plan to be published again, ie after it was edited in
+ * the Bamboo UI.
+ *
+ */
+public class SpecCache {
+
+    public static final String DEFAULT_FILE = ".speccache";
+
+    private final Path file;
+    private final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+
+    /**
+     * @param file cache file, read by load() and written by save()
+     */
+    public SpecCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * load()
+     *
+     * Reads the cache file.  A missing file leaves the cache empty, a damaged one is discarded.
+     *
+     * @return this
+     */
+    public SpecCache load() {
+        if (!Files.exists(file)) {
+            return this;
+        }
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 2) {
+                    hashes.put(fields[0], fields[1]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Exception in SpecCache.load(), ignoring cache: " + e);
+            hashes.clear();
+        }
+        return this;
+    }
+
+    /**
+     * save()
+     *
+     * Writes the cache to a temporary file and moves it over the cache file, so an interrupted save never leaves
+     * a truncated cache behind.
+     */
+    public void save() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir == null ? Paths.get(".") : dir, file.getFileName().toString(), ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> plan : new TreeMap<String, String>(hashes).entrySet()) {
+                out.write(plan.getKey() + "\t" + plan.getValue());
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * isUnchanged()
+     *
+     * @param planKey projectKey-planKey
+     * @param hash see hash()
+     * @return true if the plan was last published with exactly this content
+     */
+    public boolean isUnchanged(String planKey, String hash) {
+        return hash.equals(hashes.get(planKey));
+    }
+
+    /**
+     * put()
+     *
+     * Records a successful publish.
+     *
+     * @param planKey projectKey-planKey
+     * @param hash see hash()
+     */
+    public void put(String planKey, String hash) {
+        hashes.put(planKey, hash);
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    /**
+     * hash()
+     *
+     * @param plan
+     * @param permissions
+     * @return hex SHA-256 of the canonical form of the plan and its permissions
+     * @throws com.atlassian.bamboo.specs.api.exceptions.PropertiesValidationException if either is invalid
+     */
+    public static String hash(Plan plan, PlanPermissions permissions) {
+        return hash(EntityPropertiesBuilders.build(plan), EntityPropertiesBuilders.build(permissions));
+    }
+
+    /**
+     * hash()
+     *
+     * Same as hash(Plan, PlanPermissions) for properties that are already built, so CatalogValidator can hash the
+     * plans it builds instead of the publisher building them again.
+     *
+     * @param plan built plan properties
+     * @param permissions built plan permissions properties
+     * @return hex SHA-256 of the canonical form of the plan and its permissions
+     */
+    public static String hash(PlanProperties plan, PlanPermissionsProperties permissions) {
+        // What BambooSpecSerializer.dump() writes, minus building the properties again
+        Yaml yaml = Yamlizator.getYaml();
+        String canonical = yaml.dump(new BambooSpecProperties(plan)) + "\n---\n" + yaml.dump(new BambooSpecProperties(permissions));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i=0; i<digest.length; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);  // every JRE provides SHA-256
+        }
+    }
+}
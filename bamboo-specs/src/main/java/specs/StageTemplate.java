@@ -0,0 +1,49 @@
+/**
+ * StageTemplate.java
+ *
+ * Immutable description of a stage shared by many generated plans.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import com.atlassian.bamboo.specs.api.builders.plan.Job;
+import com.atlassian.bamboo.specs.api.builders.plan.Stage;
+
+/**
+ * StageTemplate class definition.  A stage name and its JobTemplates.  toStage() creates a new Stage, with new Jobs
+ * from the templates, on every call.
+ *
+ */
+public final class StageTemplate {
+
+    private final String name;
+    private final JobTemplate[] jobs;
+
+    /**
+     * @param name stage name, ie "Default Stage"
+     * @param jobs templates of the jobs run in this stage
+     */
+    public StageTemplate(String name, JobTemplate... jobs) {
+        this.name = name;
+        this.jobs = jobs.clone();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * toStage()
+     *
+     * @return new Stage built from this template; the caller may modify it
+     */
+    public Stage toStage() {
+        Job[] built = new Job[jobs.length];
+        for (int i=0; i<jobs.length; i++) {
+            built[i] = jobs[i].toJob();
+        }
+        return new Stage(name).jobs(built);
+    }
+}
@@ -0,0 +1,99 @@
+package specs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.atlassian.bamboo.specs.api.builders.plan.Plan;
+import com.atlassian.bamboo.specs.api.builders.project.Project;
+
+import org.junit.Test;
+
+public class CatalogValidatorTest {
+
+    private static List<Plan> catalog(int size) {
+        List<Plan> plans = new ArrayList<Plan>();
+        for (int i=0; i<size; i++) {
+            String jobs = i % 3 == 0 ? "package" : "integration,package";
+            plans.add(new PlanSpec().createPlan(PlanParameters.parse("DVOPS\tCMP" + i + "\tComponent-" + i + "\t" + jobs)));
+        }
+        return plans;
+    }
+
+    @Test
+    public void validatesLargeCatalog() {
+        CatalogValidator.Report report = new CatalogValidator().validate(catalog(2000));
+
+        assertTrue(report.getProblems().toString(), report.isClean());
+    }
+
+    @Test
+    public void reportsDuplicatePlans() {
+        List<Plan> plans = catalog(10);
+        plans.add(new PlanSpec().createPlan(PlanParameters.parse("DVOPS\tCMP3\tComponent-Copy")));
+        plans.add(new PlanSpec().createPlan(PlanParameters.parse("DVOPS\tCOPY\tComponent-4")));
+
+        CatalogValidator.Report report = new CatalogValidator().validate(plans);
+
+        assertEquals(report.getDuplicates().toString(), 2, report.getDuplicates().size());
+    }
+
+    @Test
+    public void planWithoutIdentifierIsInvalid() {
+        List<Plan> plans = catalog(10);
+        plans.add(new Plan(new Project().oid("1abc2def3").name("No Key"), "Component-X", "CMPX"));
+
+        CatalogValidator.Report report = new CatalogValidator().validate(plans);
+
+        assertEquals(1, report.getInvalid().size());
+        assertTrue(report.getInvalid().get(0), report.getInvalid().get(0).startsWith("plan CMPX: "));
+    }
+
+    @Test
+    public void reportsUnmetRequirements() {
+        CatalogValidator.Report report = new CatalogValidator()
+                .capabilities(Collections.singleton("system.builder.ant.Ant"))
+                .validate(catalog(10));
+
+        assertEquals(10, report.getUnmetRequirements().size());
+        assertTrue(report.getUnmetRequirements().get(0).contains("package_release"));
+    }
+
+    @Test
+    public void matchTypesAreChecked() throws Exception {
+        Path file = Files.createTempFile("capabilities", ".txt");
+        Map<String, Set<String>> capabilities;
+        try {
+            Files.write(file, Arrays.asList("# agents", "package_release", "os=linux", "os = windows", "jdk=1.8=u151"), StandardCharsets.UTF_8);
+            capabilities = CatalogValidator.loadCapabilities(file);
+        } finally {
+            Files.delete(file);
+        }
+        Set<String> os = new HashSet<String>(Arrays.asList("linux", "windows"));
+        assertEquals(os, capabilities.get("os"));
+        assertTrue(capabilities.get("package_release").isEmpty());
+        assertEquals(Collections.singleton("1.8=u151"), capabilities.get("jdk"));
+
+        assertTrue(CatalogValidator.matches(os, "EXISTS", null));
+        assertTrue(CatalogValidator.matches(os, "EQUALS", "linux"));
+        assertFalse(CatalogValidator.matches(os, "EQUALS", "mac"));
+        assertTrue(CatalogValidator.matches(os, "MATCHES", "win.*"));
+        assertFalse(CatalogValidator.matches(os, "MATCHES", "lin"));
+        assertFalse(CatalogValidator.matches(os, "MATCHES", "(unclosed"));
+
+        CatalogValidator.Report report = new CatalogValidator().capabilities(capabilities).validate(catalog(10));
+        assertTrue(report.getProblems().toString(), report.isClean());
+        assertTrue(report.getUncheckedRequirements().isEmpty());
+    }
+}
@@ -1,6 +1,17 @@
 package specs;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import com.atlassian.bamboo.specs.api.builders.plan.Plan;
+import com.atlassian.bamboo.specs.api.builders.requirement.Requirement;
 import com.atlassian.bamboo.specs.api.exceptions.PropertiesValidationException;
 import com.atlassian.bamboo.specs.api.util.EntityPropertiesBuilders;
 
@@ -15,4 +26,83 @@ public class PlanSpecTest {
 
         EntityPropertiesBuilders.build(plan);
     }
+
+    @Test
+    public void checkGeneratedPlansOffline() {
+        List<Plan> plans = new ArrayList<Plan>();
+        for (int i=0; i<200; i++) {
+            String jobs = i % 3 == 0 ? "package" : "integration,package";
+            plans.add(new PlanSpec().createPlan(PlanParameters.parse("DVOPS\tCMP" + i + "\tComponent-" + i + "\t" + jobs + "\tSchemas|**/*.xsd|schema")));
+        }
+
+        List<String> errors = new PlanPublisher(PlanSpec.DEFAULT_URL, 8).validate(plans);
+
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    @Test
+    public void parametersDefaultToBothJobs() {
+        PlanParameters parameters = PlanParameters.parse("DVOPS\tCMP1\tComponent-1");
+
+        assertEquals(2, parameters.getJobs().size());
+        assertTrue(parameters.getArtifacts().isEmpty());
+    }
+
+    @Test
+    public void specHashOnlyChangesWithContent() {
+        PlanSpec spec = new PlanSpec();
+        Plan plan = spec.createPlan();
+        String hash = SpecCache.hash(plan, spec.createPlanPermission(plan.getIdentifier()));
+        Plan same = spec.createPlan();
+        Plan changed = spec.createPlan(PlanParameters.parse("DVOPS\tBSTEST\tBambooSpecs-Test\tintegration,package\tSchemas|**/*.xsd|schema"));
+
+        assertEquals(hash, SpecCache.hash(same, spec.createPlanPermission(same.getIdentifier())));
+        assertNotEquals(hash, SpecCache.hash(changed, spec.createPlanPermission(changed.getIdentifier())));
+    }
+
+    @Test
+    public void validatorHashesMatchSpecCache() {
+        PlanSpec spec = new PlanSpec();
+        List<Plan> plans = new ArrayList<Plan>();
+        plans.add(spec.createPlan());
+        plans.add(spec.createPlan(PlanParameters.parse("DVOPS\tCMP1\tComponent-1\tpackage")));
+
+        Map<String, String> hashes = new CatalogValidator().hashes(true).validate(plans).getHashes();
+
+        assertEquals(2, hashes.size());
+        for (Plan plan : plans) {
+            assertEquals(SpecCache.hash(plan, spec.createPlanPermission(plan.getIdentifier())), hashes.get(PlanPublisher.key(plan)));
+        }
+        assertTrue(new CatalogValidator().validate(plans).getHashes().isEmpty());
+    }
+
+    @Test
+    public void templatesAreSharedButBuildersAreNot() {
+        PlanParameters first = PlanParameters.parse("DVOPS\tCMP1\tComponent-1\tpackage,integration");
+        PlanParameters second = PlanParameters.parse("DVOPS\tCMP2\tComponent-2");
+
+        assertSame(PlanTemplates.stage(first.getJobs(), first.getArtifacts()),
+                PlanTemplates.stage(second.getJobs(), second.getArtifacts()));
+        assertNotSame(PlanTemplates.PRODUCTION_PACKAGE.toJob(), PlanTemplates.PRODUCTION_PACKAGE.toJob());
+    }
+
+    @Test
+    public void changingABuiltJobLeavesOtherPlansUnchanged() {
+        PlanSpec spec = new PlanSpec();
+        PlanParameters parameters = PlanParameters.parse("DVOPS\tCMP1\tComponent-1");
+        Plan before = spec.createPlan(parameters);
+        String hash = SpecCache.hash(before, spec.createPlanPermission(before.getIdentifier()));
+
+        PlanTemplates.PRODUCTION_PACKAGE.toJob().requirements(new Requirement("other"));
+        PlanTemplates.stage(parameters.getJobs(), parameters.getArtifacts()).toStage()
+                .jobs(PlanTemplates.INTEGRATION_TESTS.toJob().description("changed"));
+        Plan after = spec.createPlan(parameters);
+
+        assertEquals(hash, SpecCache.hash(after, spec.createPlanPermission(after.getIdentifier())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownJobTemplateIsRejected() {
+        PlanParameters.parse("DVOPS\tCMP1\tComponent-1\tdeploy");
+    }
 }
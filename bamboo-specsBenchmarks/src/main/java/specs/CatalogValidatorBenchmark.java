@@ -0,0 +1,85 @@
+/**
+ * CatalogValidatorBenchmark.java
+ *
+ * Time taken by CatalogValidator.validate() over generated plan catalogs.
+ *
+ * @author michael.howard
+ *
+ */
+package specs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import com.atlassian.bamboo.specs.api.builders.plan.Plan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CatalogValidatorBenchmark class definition.  Generates 'size' plans the way CatalogValidatorTest does, with one
+ * extra shared artifact each, and validates the whole catalog per operation.  'threads' is the parallelism of the
+ * ForkJoinPool the plans are built on, so 1 against the number of cores shows what the parallel build gains.
+ * 'hashes' adds the SpecCache hash of every plan.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CatalogValidatorBenchmark {
+
+    @Param({ "1000", "5000" })
+    public int size;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "false", "true" })
+    public boolean hashes;
+
+    private List<Plan> plans;
+    private ForkJoinPool pool;
+    private CatalogValidator validator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        plans = new ArrayList<Plan>();
+        for (int i=0; i<size; i++) {
+            String jobs = i % 3 == 0 ? "package" : "integration,package";
+            plans.add(new PlanSpec().createPlan(PlanParameters.parse("DVOPS\tCMP" + i + "\tComponent-" + i + "\t" + jobs
+                    + "\tSchemas|**/*.xsd|schema")));
+        }
+        pool = new ForkJoinPool(threads);
+        validator = new CatalogValidator(pool).hashes(hashes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public CatalogValidator.Report validate() {
+        CatalogValidator.Report report = validator.validate(plans);
+        if (!report.isClean()) {
+            throw new IllegalStateException(report.getProblems().toString());
+        }
+        return report;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * AgentIndex.java
+ *
+ * In-memory inverted index from agent capability to the agents providing it, used to check requirement changes
+ * before they are written.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * AgentIndex class definition.  Agents are numbered by id in the order they are added and each capability maps to a BitSet
+ * of the agents that have it, both by key alone (for EXISTS requirements) and by key and value (for EQUALS).  A
+ * requirement is therefore checked with one hash lookup, and a job's requirement list by AND-ing one BitSet per
+ * requirement: the job can be built if any agent is left.  MATCHES requirements test the regular expression
+ * against the distinct values of the key, which is still independent of the number of agents and jobs.
+ *
+ * load() reads every enabled agent and its capabilities once:
+ *
+ * <pre>
+ * GET /rest/api/latest/agent                       agents (id, name, enabled)
+ * GET /rest/api/latest/agent/{id}/capability       capabilities of one agent (key, value)
+ * </pre>
+ *
+ * The index is filled before use and read only afterwards, so it may be shared by all workers of a sweep.  check()
+ * also remembers why each unbuildable job failed so the sweep can report it with explain(jobKey) at the end.
+ *
+ */
+public class AgentIndex {
+
+    private final Map<String, Integer> agents = new HashMap<String, Integer>();
+    private final Map<String, BitSet> byKey = new ConcurrentHashMap<String, BitSet>();
+    private final Map<String, Map<String, BitSet>> byValue = new ConcurrentHashMap<String, Map<String, BitSet>>();
+    private final Map<String, String> unbuildable = new ConcurrentHashMap<String, String>();
+
+    /**
+     * load()
+     *
+     * @param client
+     * @return AgentIndex of every enabled agent of the server
+     * @throws IOException also if the server has no enabled agent, as every job would then be unbuildable
+     */
+    public static AgentIndex load(BambooClient client) throws IOException {
+        AgentIndex index = new AgentIndex();
+        List<String[]> agents;
+        try (BambooClient.Response response = client.get("/rest/api/latest/agent")) {
+            agents = BambooJson.readObjects(response.reader(), "id", "name", "enabled");
+        }
+        for (String[] agent : agents) {
+            if ("false".equals(agent[2])) {
+                continue;
+            }
+            index.id(agent[0]);  // an agent without capabilities still builds jobs without requirements
+            try (BambooClient.Response response = client.get("/rest/api/latest/agent/" + agent[0] + "/capability")) {
+                for (String[] capability : BambooJson.readObjects(response.reader(), "key", "value")) {
+                    index.add(agent[0], capability[0], capability[1]);
+                }
+            }
+        }
+        if (index.getAgentCount() == 0) {
+            throw new IOException("no enabled agents to check job requirements against, use --no-agents to skip the check");
+        }
+        return index;
+    }
+
+    /**
+     * add()
+     *
+     * Records one capability of an agent, adding the agent on first use.
+     *
+     * @param agent agent id; names need not be unique
+     * @param key capability key, ie package_release or system.builder.ant.Ant
+     * @param value capability value, may be null
+     * @return this
+     */
+    public synchronized AgentIndex add(String agent, String key, String value) {
+        int id = id(agent);
+        byKey.computeIfAbsent(key, k -> new BitSet()).set(id);
+        byValue.computeIfAbsent(key, k -> new ConcurrentHashMap<String, BitSet>())
+            .computeIfAbsent(value == null ? "" : value, v -> new BitSet()).set(id);
+        return this;
+    }
+
+    /**
+     * id()
+     *
+     * @param agent agent id
+     * @return number of the agent, adding it on first use
+     */
+    private synchronized int id(String agent) {
+        Integer id = agents.get(agent);
+        if (id == null) {
+            id = agents.size();
+            agents.put(agent, id);
+        }
+        return id;
+    }
+
+    public int getAgentCount() {
+        return agents.size();
+    }
+
+    /**
+     * agents()
+     *
+     * @param key requirement key
+     * @param matchType EXISTS, EQUALS or MATCHES
+     * @param matchValue value for EQUALS and MATCHES
+     * @return agents satisfying the requirement; a new BitSet the caller may modify
+     */
+    public BitSet agents(String key, String matchType, String matchValue) {
+        if (matchType == null || matchType.equals("EXISTS")) {
+            BitSet found = byKey.get(key);
+            return found == null ? new BitSet() : (BitSet) found.clone();
+        }
+        Map<String, BitSet> values = byValue.get(key);
+        if (values == null) {
+            return new BitSet();
+        }
+        if (matchType.equals("EQUALS")) {
+            BitSet found = values.get(matchValue == null ? "" : matchValue);
+            return found == null ? new BitSet() : (BitSet) found.clone();
+        }
+        BitSet found = new BitSet();
+        try {
+            Pattern pattern = Pattern.compile(matchValue == null ? "" : matchValue);
+            for (Map.Entry<String, BitSet> value : values.entrySet()) {
+                if (pattern.matcher(value.getKey()).matches()) {
+                    found.or(value.getValue());
+                }
+            }
+        } catch (PatternSyntaxException e) {
+            // Bamboo would never match an invalid pattern either
+        }
+        return found;
+    }
+
+    /**
+     * canBuild()
+     *
+     * @param requirements requirements of a job, each as { key, matchType, matchValue }
+     * @return true if at least one agent satisfies every requirement, or if there are no requirements
+     */
+    public boolean canBuild(List<String[]> requirements) {
+        if (requirements.isEmpty()) {
+            return true;
+        }
+        BitSet candidates = new BitSet();
+        candidates.set(0, agents.size());
+        for (String[] requirement : requirements) {
+            candidates.and(agents(requirement[0], requirement[1], requirement[2]));
+            if (candidates.isEmpty()) {
+                return false;
+            }
+        }
+        return !candidates.isEmpty();
+    }
+
+    /**
+     * check()
+     *
+     * canBuild() for one job, remembering the explain() reason if no agent can build it.
+     *
+     * @param jobKey
+     * @param requirements requirements the job would have, each as { key, matchType, matchValue }
+     * @return true if at least one agent satisfies every requirement
+     */
+    public boolean check(String jobKey, List<String[]> requirements) {
+        if (canBuild(requirements)) {
+            return true;
+        }
+        unbuildable.merge(jobKey, explain(requirements), (first, next) -> first.equals(next) ? first : first + "; " + next);
+        return false;
+    }
+
+    /**
+     * explain()
+     *
+     * @param jobKey
+     * @return why check() found the job unbuildable, or null if it did not
+     */
+    public String explain(String jobKey) {
+        return unbuildable.get(jobKey);
+    }
+
+    /**
+     * explain()
+     *
+     * @param requirements requirements of a job, each as { key, matchType, matchValue }
+     * @return why no agent can build a job with these requirements
+     */
+    public String explain(List<String[]> requirements) {
+        for (String[] requirement : requirements) {
+            if (agents(requirement[0], requirement[1], requirement[2]).isEmpty()) {
+                return "no agent provides " + requirement[0] + " " + (requirement[1] == null ? "EXISTS" : requirement[1])
+                        + (requirement[2] == null || requirement[2].isEmpty() ? "" : " " + requirement[2]);
+            }
+        }
+        return "no single agent provides all " + requirements.size() + " requirements";
+    }
+}
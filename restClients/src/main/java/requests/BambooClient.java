@@ -0,0 +1,448 @@
+/**
+ * BambooClient.java
+ *
+ * Shared client for the Bamboo REST API.  Every REST call made by JobRequirements goes through one instance of
+ * this class.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.JsonObject;
+
+/**
+ * BambooClient class definition.  The Basic auth header is computed once, responses are requested gzip encoded and
+ * every call has connect and read timeouts.  Response bodies (including error bodies) are always drained before the
+ * stream is closed and connections are never disconnect()ed, so the JDK keep-alive cache hands the same TLS
+ * connection to the next request instead of performing a new handshake.
+ *
+ * The module targets Java 8, where HttpURLConnection speaks HTTP/1.1 only; connection reuse comes from keep-alive.
+ * The keep-alive cache holds http.maxConnections idle connections per host (JDK default 5).  That is a JVM wide
+ * setting read once, when the first connection is made, so it is not changed by the constructor: call keepAlive()
+ * once at startup (Cli.main does) or set the property on the command line.
+ *
+ * Calls are run through a RequestScheduler (rate limit, retry with backoff, circuit breaker) when one is set.  GETs
+ * are retried after any transient failure; writes only when Bamboo cannot have seen them, see RequestScheduler.  Every
+ * attempt, retried or not, is recorded in Metrics: latency to the response headers, status and the body bytes read.
+ *
+ */
+public class BambooClient {
+
+    private final String baseUrl;
+    private final String authorization;
+    private int connectTimeout = 10000;
+    private int readTimeout = 60000;
+    private Metrics metrics = new Metrics();
+    private RequestScheduler scheduler = RequestScheduler.unlimited().metrics(metrics);
+
+    /**
+     * @param baseUrl Bamboo base URL, ie https://host/bamboo
+     * @param credentials JSON object containing username and password
+     */
+    public BambooClient(String baseUrl, JsonObject credentials) {
+        this(baseUrl, credentials.get("username").getAsString(), credentials.get("password").getAsString());
+    }
+
+    public BambooClient(String baseUrl, String username, String password) {
+        this.baseUrl = baseUrl;
+        String userPassword = username + ":" + password;
+        this.authorization = "Basic " + Base64.getEncoder().encodeToString(userPassword.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * keepAlive()
+     *
+     * Raises http.maxConnections, the number of idle connections per host the JDK keeps for reuse, unless it was
+     * set on the command line.  The property is JVM wide and only read before the first connection is made, so call
+     * this once at startup.
+     *
+     * @param connections connections to keep alive, ie twice the number of concurrent requests
+     */
+    public static void keepAlive(int connections) {
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(Math.max(5, connections)));
+        }
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public BambooClient connectTimeout(int millis) {
+        this.connectTimeout = millis;
+        return this;
+    }
+
+    public BambooClient readTimeout(int millis) {
+        this.readTimeout = millis;
+        return this;
+    }
+
+    /**
+     * scheduler()
+     *
+     * Sets the RequestScheduler every call is run through; it reports to the Metrics of this client.  Without one
+     * calls are sent immediately and not retried, and there is no circuit breaker.
+     *
+     * @param scheduler
+     * @return this
+     */
+    public BambooClient scheduler(RequestScheduler scheduler) {
+        this.scheduler = scheduler.metrics(metrics);
+        return this;
+    }
+
+    /**
+     * metrics()
+     *
+     * Sets the Metrics every request is recorded in, ie to share one instance between clients.
+     *
+     * @param metrics
+     * @return this
+     */
+    public BambooClient metrics(Metrics metrics) {
+        this.metrics = metrics;
+        scheduler.metrics(metrics);
+        return this;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * get()
+     *
+     * Performs an authenticated JSON GET.
+     *
+     * @param path REST path including any query string, ie /rest/api/latest/plan
+     * @return Response which MUST be closed
+     * @throws BambooException for any status of 400 or above
+     */
+    public Response get(String path) throws IOException {
+        return get(path, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * get()
+     *
+     * Performs an authenticated JSON GET with extra request headers, ie If-None-Match for a conditional GET.  A 304
+     * is returned as a Response with an empty body.
+     *
+     * @param path REST path including any query string
+     * @param headers additional request headers
+     * @return Response which MUST be closed
+     * @throws BambooException for any status of 400 or above
+     */
+    public Response get(String path, Map<String, String> headers) throws IOException {
+        return call("GET", path, () -> {
+            HttpURLConnection conn = open("GET", path);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+            return connect(conn);
+        });
+    }
+
+    /**
+     * post()
+     *
+     * Performs an authenticated JSON POST.
+     *
+     * @param path REST path
+     * @param body JSON request body
+     * @return Response which MUST be closed
+     * @throws BambooException for any status of 400 or above
+     */
+    public Response post(String path, JsonObject body) throws IOException {
+        return send("POST", path, body);
+    }
+
+    /**
+     * delete()
+     *
+     * Performs an authenticated DELETE.
+     *
+     * @param path REST path
+     * @return Response which MUST be closed
+     * @throws BambooException for any status of 400 or above
+     */
+    public Response delete(String path) throws IOException {
+        return call("DELETE", path, () -> connect(open("DELETE", path)));
+    }
+
+    /**
+     * send()
+     *
+     * Performs an authenticated request with a JSON body.
+     *
+     * @param method HTTP method
+     * @param path REST path
+     * @param body JSON request body
+     * @return Response which MUST be closed
+     * @throws BambooException for any status of 400 or above
+     */
+    public Response send(String method, String path, JsonObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+        return call(method, path, () -> {
+            HttpURLConnection conn = open(method, path);
+            conn.setDoOutput(true);
+            conn.setInstanceFollowRedirects(false);
+            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            conn.setFixedLengthStreamingMode(bytes.length);
+            connect(conn);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(bytes);
+            }
+            return conn;
+        });
+    }
+
+    /**
+     * Request interface definition.  Opens a connection and sends the request, once per attempt.
+     */
+    private interface Request {
+        HttpURLConnection send() throws IOException;
+    }
+
+    /**
+     * call()
+     *
+     * Runs a request through the scheduler and records every attempt in metrics.  Only GET is treated as idempotent.
+     *
+     * @param method HTTP method
+     * @param path REST path
+     * @param request sends one attempt
+     * @return Response which MUST be closed
+     */
+    private Response call(String method, String path, Request request) throws IOException {
+        String endpoint = Metrics.endpoint(method, path);
+        AtomicInteger attempts = new AtomicInteger();
+
+        return scheduler.execute(() -> {
+            boolean retry = attempts.getAndIncrement() > 0;
+            long start = System.nanoTime();
+            HttpURLConnection conn;
+            int status;
+            try {
+                conn = request.send();
+                status = conn.getResponseCode();
+            } catch (IOException e) {
+                metrics.request(endpoint, -1, System.nanoTime() - start, retry);
+                throw e;
+            }
+            metrics.request(endpoint, status, System.nanoTime() - start, retry);
+            return execute(conn, status, endpoint);
+        }, method.equals("GET"));
+    }
+
+    private HttpURLConnection open(String method, String path) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Accept", "application/json");
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        conn.setRequestProperty("Authorization", authorization);
+        return conn;
+    }
+
+    /**
+     * connect()
+     *
+     * Opens the connection before anything is sent.  A connect timeout is reported as a ConnectException, so the
+     * scheduler can tell it from a read timeout, after which Bamboo may already have acted on the request.
+     *
+     * @param conn configured connection
+     * @return conn
+     */
+    private static HttpURLConnection connect(HttpURLConnection conn) throws IOException {
+        try {
+            conn.connect();
+        } catch (SocketTimeoutException e) {
+            ConnectException timeout = new ConnectException("Connect timed out: " + conn.getURL().getHost());
+            timeout.initCause(e);
+            throw timeout;
+        }
+        return conn;
+    }
+
+    private Response execute(HttpURLConnection conn, int status, String endpoint) throws IOException {
+        if (status >= 400) {
+            Response error = new Response(conn, status, counted(conn.getErrorStream(), endpoint));
+            String body;
+            try {
+                body = error.text();
+            } finally {
+                error.close();
+            }
+            throw new BambooException(conn.getRequestMethod() + " " + conn.getURL().getPath(), status, body, retryAfter(conn));
+        }
+        return new Response(conn, status, counted(conn.getInputStream(), endpoint));
+    }
+
+    private InputStream counted(InputStream raw, String endpoint) {
+        return raw == null ? null : new CountingInputStream(raw, metrics, endpoint);
+    }
+
+    private static int retryAfter(HttpURLConnection conn) {
+        String value = conn.getHeaderField("Retry-After");
+        try {
+            return value == null ? -1 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;  // HTTP-date form, fall back to the computed backoff
+        }
+    }
+
+    /**
+     * Response class definition.  Wraps the (gzip decoded) body of a successful call.  close() drains whatever is
+     * left of the body so the underlying connection can be reused.
+     *
+     */
+    public static class Response implements Closeable {
+
+        private final HttpURLConnection conn;
+        private final int status;
+        private final InputStream body;
+
+        Response(HttpURLConnection conn, int status, InputStream raw) throws IOException {
+            this.conn = conn;
+            this.status = status;
+            InputStream body = raw;
+            if (raw != null && "gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+                try {
+                    body = new GZIPInputStream(raw);
+                } catch (IOException e) {
+                    // Bad gzip header: nothing owns the stream yet, and the connection is not worth reusing
+                    raw.close();
+                    conn.disconnect();
+                    throw e;
+                }
+            }
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getHeader(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        /**
+         * reader()
+         *
+         * @return UTF-8 reader over the response body
+         */
+        public Reader reader() {
+            return new InputStreamReader(body == null ? new ByteArrayInputStream(new byte[0]) : body, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * text()
+         *
+         * @return whole response body as a string
+         */
+        public String text() throws IOException {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[4096];
+            Reader reader = reader();
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
+            }
+            return text.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (body == null) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[4096];
+                while (body.read(buffer) != -1) {
+                    // drain so the connection goes back to the keep-alive cache
+                }
+            } finally {
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * CountingInputStream class definition.  Counts the (still encoded) body bytes read and reports them to Metrics
+     * when closed.
+     *
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final Metrics metrics;
+        private final String endpoint;
+        private long count;
+        private boolean closed;
+
+        CountingInputStream(InputStream in, Metrics metrics, String endpoint) {
+            super(in);
+            this.metrics = metrics;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                metrics.received(endpoint, count);
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * BambooException.java
+ *
+ * Raised by BambooClient when Bamboo answers with an HTTP error status.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+
+/**
+ * BambooException class definition.  Carries the status code and the (already drained) error body.
+ *
+ */
+public class BambooException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final String body;
+    private final int retryAfter;
+
+    public BambooException(String request, int status, String body) {
+        this(request, status, body, -1);
+    }
+
+    /**
+     * @param request method and path of the failed call
+     * @param status HTTP status
+     * @param body error body
+     * @param retryAfter seconds from the Retry-After header, or -1 if there was none
+     */
+    public BambooException(String request, int status, String body, int retryAfter) {
+        super(request + " returned " + status + (body == null || body.isEmpty() ? "" : ": " + body));
+        this.status = status;
+        this.body = body;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
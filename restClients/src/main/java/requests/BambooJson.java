@@ -0,0 +1,319 @@
+/**
+ * BambooJson.java
+ *
+ * Streaming readers for the Bamboo REST responses used by JobRequirements.  Only the fields that are needed are
+ * pulled off the wire; everything else is skipped without being materialized.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * BambooJson class definition.  Static helpers built on Gson's JsonReader.
+ *
+ */
+final class BambooJson {
+
+    private BambooJson() {
+    }
+
+    /**
+     * readPlans()
+     *
+     * Streams a /rest/api/latest/plan response.  Only the top level "key" of each plan is read, the paging
+     * fields are recorded in the returned PlanPage and every other field is skipped.
+     *
+     * @param in response body
+     * @param keyFilter plan keys failing this test are counted but not kept
+     * @return PlanPage holding the paging fields and the accepted plan keys
+     */
+    static PlanPage readPlans(Reader in, Predicate<String> keyFilter) throws IOException {
+        PlanPage page = new PlanPage();
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("plans")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("size")) {
+                    page.size = reader.nextInt();
+                } else if (name.equals("start-index")) {
+                    page.startIndex = reader.nextInt();
+                } else if (name.equals("max-result")) {
+                    page.maxResult = reader.nextInt();
+                } else if (name.equals("plan")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String key = readField(reader, "key");
+                        page.count++;
+                        if (key != null && keyFilter.test(key)) {
+                            page.keys.add(key);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+
+        return page;
+    }
+
+    /**
+     * readJobs()
+     *
+     * Streams a /rest/api/latest/search/jobs/{key} response, handing the key and jobName of every search
+     * result whose name passes nameFilter to the consumer.
+     *
+     * @param in response body
+     * @param nameFilter job names failing this test are skipped
+     * @param job receives (job key, job name) for each accepted job
+     * @return number of jobs accepted
+     */
+    static int readJobs(Reader in, Predicate<String> nameFilter, BiConsumer<String, String> job) throws IOException {
+        int count = 0;
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("searchResults")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!reader.nextName().equals("searchEntity")) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    String key = null;
+                    String jobName = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if (name.equals("key")) {
+                            key = nextString(reader);
+                        } else if (name.equals("jobName")) {
+                            jobName = nextString(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    jobName = jobName == null ? "" : jobName;
+                    if (key != null && nameFilter.test(jobName)) {
+                        job.accept(key, jobName);
+                        count++;
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+
+        return count;
+    }
+
+    /**
+     * readPlanJobs()
+     *
+     * Streams a /rest/api/latest/plan/{key}?expand=stages.stage.plans response, handing the key, shortName and
+     * enabled state of every job of every stage whose name passes nameFilter to the consumer.
+     *
+     * @param in response body
+     * @param nameFilter job names failing this test are skipped
+     * @param job receives { job key, job name, "true" or "false" } for each accepted job
+     * @return { plan name, plan enabled "true" or "false", number of jobs of the plan before filtering }
+     */
+    static String[] readPlanJobs(Reader in, Predicate<String> nameFilter, Consumer<String[]> job) throws IOException {
+        int count = 0;
+        String planName = null;
+        String planEnabled = null;
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("name")) {
+                planName = nextString(reader);
+                continue;
+            } else if (field.equals("enabled")) {
+                planEnabled = nextString(reader);
+                continue;
+            } else if (!field.equals("stages")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("stage")) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (!reader.nextName().equals("plans")) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (!reader.nextName().equals("plan")) {
+                                reader.skipValue();
+                                continue;
+                            }
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                String[] values = new String[3];
+                                reader.beginObject();
+                                while (reader.hasNext()) {
+                                    String name = reader.nextName();
+                                    if (name.equals("key")) {
+                                        values[0] = nextString(reader);
+                                    } else if (name.equals("shortName")) {
+                                        values[1] = nextString(reader);
+                                    } else if (name.equals("enabled")) {
+                                        values[2] = nextString(reader);
+                                    } else {
+                                        reader.skipValue();
+                                    }
+                                }
+                                reader.endObject();
+                                values[1] = values[1] == null ? "" : values[1];
+                                values[2] = String.valueOf(!"false".equals(values[2]));
+                                count += values[0] == null ? 0 : 1;
+                                if (values[0] != null && nameFilter.test(values[1])) {
+                                    job.accept(values);
+                                }
+                            }
+                            reader.endArray();
+                        }
+                        reader.endObject();
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+
+        return new String[] { planName == null ? "" : planName, String.valueOf(!"false".equals(planEnabled)), String.valueOf(count) };
+    }
+
+    /**
+     * readRequirementKeys()
+     *
+     * Streams a /rest/api/latest/config/job/{key}/requirement response, collecting the key of every requirement.
+     *
+     * @param in response body
+     * @return Set of requirement keys present on the job
+     */
+    static Set<String> readRequirementKeys(Reader in) throws IOException {
+        Set<String> keys = new HashSet<String>();
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String key = readField(reader, "key");
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        reader.endArray();
+
+        return keys;
+    }
+
+    /**
+     * readObjects()
+     *
+     * Streams a response holding a top level array of objects, ie the requirements of a job or the agents of the
+     * server, collecting the named fields of each object.
+     *
+     * @param in response body
+     * @param fields names of the top level fields to read
+     * @return one String[] per object, holding the fields in the order requested (null where absent)
+     */
+    static List<String[]> readObjects(Reader in, String... fields) throws IOException {
+        List<String[]> objects = new ArrayList<String[]>();
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String[] values = new String[fields.length];
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int index = Arrays.asList(fields).indexOf(reader.nextName());
+                if (index >= 0) {
+                    values[index] = nextString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            objects.add(values);
+        }
+        reader.endArray();
+
+        return objects;
+    }
+
+    /**
+     * readField()
+     *
+     * Reads the current object and returns the string value of its top level field, skipping the rest.
+     */
+    static String readField(JsonReader reader, String field) throws IOException {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(field)) {
+                value = nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * ChangeSet.java
+ *
+ * Declarative list of job changes applied in one sweep by MutationEngine.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * ChangeSet class definition.  A change set file is JSON:
+ *
+ * <pre>
+ * {
+ *   "filters": [ "job.include=*production*" ],
+ *   "changes": [
+ *     { "type": "requirement", "action": "add",    "key": "package_release", "matchType": "EXISTS" },
+ *     { "type": "requirement", "action": "modify", "key": "os", "matchType": "EQUALS", "matchValue": "linux" },
+ *     { "type": "requirement", "action": "remove", "key": "legacy_agent" },
+ *     { "type": "variable",    "action": "add",    "key": "release.train", "value": "R42" },
+ *     { "type": "raw", "method": "PUT", "path": "/rest/api/latest/config/job/{jobKey}/...", "body": { } }
+ *   ]
+ * }
+ * </pre>
+ *
+ * "filters" holds JobFilter rules selecting the jobs; when absent the regular filter file applies.  Changes are
+ * applied to each job in the order listed.
+ *
+ */
+public class ChangeSet {
+
+    private final List<JobChange> changes = new ArrayList<JobChange>();
+    private final List<String> filters = new ArrayList<String>();
+    private String source;
+
+    /**
+     * load()
+     *
+     * @param file change set JSON file
+     * @return ChangeSet described by the file
+     */
+    public static ChangeSet load(Path file) throws IOException {
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(new JsonParser().parse(in).getAsJsonObject());
+        }
+    }
+
+    /**
+     * parse()
+     *
+     * @param json change set document
+     * @return ChangeSet described by the document
+     */
+    public static ChangeSet parse(JsonObject json) {
+        ChangeSet changeSet = new ChangeSet();
+        changeSet.source = json.toString();
+        if (json.has("filters")) {
+            for (JsonElement rule : json.getAsJsonArray("filters")) {
+                changeSet.filters.add(rule.getAsString());
+            }
+        }
+        for (JsonElement element : json.getAsJsonArray("changes")) {
+            JsonObject change = element.getAsJsonObject();
+            String type = string(change, "type");
+            if (type.equals("requirement")) {
+                changeSet.add(new RequirementChange(action(change), string(change, "key"), string(change, "matchType"), string(change, "matchValue")));
+            } else if (type.equals("variable")) {
+                changeSet.add(new VariableChange(action(change), string(change, "key"), string(change, "value")));
+            } else if (type.equals("raw")) {
+                changeSet.add(new RawChange(string(change, "method"), string(change, "path"), change.has("body") ? change.getAsJsonObject("body") : null));
+            } else {
+                throw new IllegalArgumentException("Unknown change type: " + change);
+            }
+        }
+        return changeSet;
+    }
+
+    public ChangeSet add(JobChange change) {
+        changes.add(change);
+        return this;
+    }
+
+    /**
+     * agents()
+     *
+     * Has every requirement change check its writes against the AgentIndex first.
+     *
+     * @param agents
+     * @return this
+     */
+    public ChangeSet agents(AgentIndex agents) {
+        for (JobChange change : changes) {
+            if (change instanceof RequirementChange) {
+                ((RequirementChange) change).agents(agents);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * describe()
+     *
+     * @return one line listing every change, ie to identify the run in a Journal
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        for (JobChange change : changes) {
+            description.append(description.length() == 0 ? "" : "; ").append(change.describe());
+        }
+        return description.toString();
+    }
+
+    /**
+     * getRunId()
+     *
+     * describe() leaves out raw request bodies and the filters, so the run id adds a hash of the whole change set
+     * document: editing any part of it starts a new Journal instead of resuming the old one.
+     *
+     * @return describe() followed by the first 16 hex digits of the SHA-256 of the change set
+     */
+    public String getRunId() {
+        String content = (source == null ? "" : source) + "\n" + describe();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i=0; i<8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return describe() + " #" + hex;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);  // every JRE provides SHA-256
+        }
+    }
+
+    public List<JobChange> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * getFilter()
+     *
+     * @param fallback filter used when the change set has no rules of its own
+     * @return JobFilter selecting the jobs to change
+     */
+    public JobFilter getFilter(JobFilter fallback) {
+        if (filters.isEmpty()) {
+            return fallback;
+        }
+        JobFilter filter = new JobFilter();
+        for (String rule : filters) {
+            filter.add(rule);
+        }
+        return filter;
+    }
+
+    /**
+     * apply()
+     *
+     * Applies every change to one job.  A failing change is recorded and the remaining changes are still applied.
+     *
+     * @param client
+     * @param jobKey
+     * @param dryRun true to only report what would change
+     * @return JobResult with one outcome per change
+     */
+    public JobResult apply(BambooClient client, String jobKey, boolean dryRun) {
+        JobResult result = new JobResult(jobKey);
+        for (JobChange change : changes) {
+            try {
+                result.add(change.describe(), change.apply(client, jobKey, dryRun), null);
+            } catch (Exception e) {
+                result.add(change.describe(), Outcome.FAILED, e.toString());
+            }
+        }
+        return result;
+    }
+
+    private static RequirementChange.Action action(JsonObject change) {
+        return RequirementChange.Action.valueOf(string(change, "action").toUpperCase());
+    }
+
+    private static String string(JsonObject object, String field) {
+        JsonElement value = object.get(field);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+}
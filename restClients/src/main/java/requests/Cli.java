@@ -0,0 +1,231 @@
+/**
+ * Cli.java
+ *
+ * Command line driver for the package_release sweep, change sets and inventory exports.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Cli class definition.  main() parses the options into a SweepConfig (see SweepConfig.USAGE) and runs one sweep:
+ * with --export the jobs are written to an Inventory snapshot, with --changes the ChangeSet is applied through the
+ * MutationEngine, otherwise the package_release requirement is added wherever it is missing.  For example, to split
+ * a large server over four hosts run on each
+ *
+ * <pre>
+ * java requests.Cli --server https://bamboo.example.com/bamboo --shard 1/4
+ * java requests.Cli --server https://bamboo.example.com/bamboo --shard 2/4
+ * ...
+ * </pre>
+ *
+ * The process exits with 1 if any plan or job failed and with 2 for bad options.
+ *
+ */
+public class Cli {
+
+    private final SweepConfig config;
+
+    public Cli(SweepConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Run main to execute a sweep: [options], see SweepConfig.USAGE
+     */
+    public static void main(final String[] args) throws Exception {
+        SweepConfig config;
+        try {
+            config = SweepConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + "\n" + SweepConfig.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (config.isHelp()) {
+            System.out.print(SweepConfig.USAGE);
+            return;
+        }
+
+        BambooClient.keepAlive(2 * config.getConcurrency());
+        Cli cli = new Cli(config);
+        boolean clean = config.getExportFile() != null ? cli.exportInventory()
+                : config.getChangeSetFile() != null ? cli.applyChanges() : cli.sweep();
+        if (!clean) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * client()
+     *
+     * @return BambooClient for the server, credentials and request rate of the config
+     */
+    BambooClient client() {
+        return new BambooClient(config.getBaseUrl(), config.loadCredentials())
+                .scheduler(new RequestScheduler(config.getRequestsPerSecond(), config.getConcurrency()));
+    }
+
+    /**
+     * sweep()
+     *
+     * Fetches the Bamboo plans of the shard and adds the package_release requirement to matching jobs as they are
+     * discovered.
+     *
+     * @return true if no plan or job failed
+     */
+    public boolean sweep() throws Exception {
+        BambooClient client = client();
+        JobCache cache = cache();
+        JobFilter filter = config.loadFilter();
+        JobRequirements requests = new JobRequirements(client, cache, filter, config);
+        AgentIndex agents = config.isCheckAgents() ? AgentIndex.load(client) : null;
+        if (agents != null) {
+            System.out.println("agents: " + agents.getAgentCount());
+            requests.agents(agents);
+        }
+        Journal journal = journal("package_release " + (config.isDiff() ? "ensure" : "add") + config.describeShard(), filter);
+        RequirementPipeline pipeline = new RequirementPipeline(requests, config.getConcurrency(), config.getQueueSize()).journal(journal);
+        ArrayList<String> errors = pipeline.run();
+        saveCache(cache, pipeline);
+        boolean clean = errors.isEmpty() && pipeline.isPlanListComplete() && pipeline.getCount(Outcome.FAILED) == 0;
+        finish(journal, clean);
+
+        System.out.println((config.isDryRun() ? "dry run, " : "") + "plans: " + pipeline.getPlanCount() + config.describeShard()
+                + ", jobs: " + pipeline.getJobCount() + ", resumed: " + pipeline.getResumedCount()
+                + ", added: " + pipeline.getCount(Outcome.ADDED)
+                + ", unchanged: " + pipeline.getCount(Outcome.UNCHANGED) + ", unbuildable: " + pipeline.getCount(Outcome.UNBUILDABLE)
+                + ", failed: " + pipeline.getCount(Outcome.FAILED));
+        printUnbuildable(pipeline.getUnbuildable(), agents);
+        System.out.println("errors: " + errors.size() + "\n" + errors);
+        writeMetrics(client.getMetrics());
+        return clean;
+    }
+
+    /**
+     * applyChanges()
+     *
+     * Applies the change set of the config to every matching job of the shard.
+     *
+     * @return true if no plan or job failed
+     */
+    public boolean applyChanges() throws Exception {
+        ChangeSet changes = ChangeSet.load(Paths.get(config.getChangeSetFile()));
+        BambooClient client = client();
+        AgentIndex agents = config.isCheckAgents() ? AgentIndex.load(client) : null;
+        if (agents != null) {
+            System.out.println("agents: " + agents.getAgentCount());
+            changes.agents(agents);
+        }
+        JobFilter filter = changes.getFilter(config.loadFilter());
+        MutationEngine engine = new MutationEngine(new JobRequirements(client, null, filter, config), client, changes, config.isDryRun());
+        Journal journal = journal(changes.getRunId() + config.describeShard(), filter);
+        ArrayList<String> errors = engine.journal(journal).run(config.getConcurrency(), config.getQueueSize());
+        boolean clean = errors.isEmpty() && engine.getCount(Outcome.FAILED) == 0;
+        finish(journal, clean);
+
+        for (JobResult result : engine.getResults()) {
+            System.out.println(result);
+        }
+        System.out.println((config.isDryRun() ? "dry run, " : "") + engine.summary());
+        printUnbuildable(engine.getUnbuildable(), agents);
+        System.out.println("errors: " + errors.size() + "\n" + errors);
+        writeMetrics(client.getMetrics());
+        return clean;
+    }
+
+    /**
+     * exportInventory()
+     *
+     * Writes every job of the shard, or only the matching ones if a filter was given, to the Inventory snapshot of the
+     * config.
+     *
+     * @return true if no plan or job failed
+     */
+    public boolean exportInventory() throws Exception {
+        BambooClient client = client();
+        InventoryExport export = new InventoryExport(new JobRequirements(client, null, config.loadExportFilter(), config));
+        ArrayList<String> errors = export.run(config.getExportFile(), config.getConcurrency(), config.getQueueSize());
+        RequirementPipeline pipeline = export.getPipeline();
+        boolean clean = errors.isEmpty() && pipeline.isPlanListComplete() && pipeline.getCount(Outcome.FAILED) == 0;
+
+        System.out.println("plans: " + pipeline.getPlanCount() + config.describeShard() + ", rows: " + export.getRowCount()
+                + " written to " + config.getExportFile() + ", failed: " + pipeline.getCount(Outcome.FAILED));
+        System.out.println("errors: " + errors.size() + "\n" + errors);
+        writeMetrics(client.getMetrics());
+        return clean;
+    }
+
+    /**
+     * cache()
+     *
+     * @return loaded JobCache, or null if the cache is disabled
+     */
+    private JobCache cache() {
+        return config.getCacheFile() == null ? null : new JobCache(config.getCacheFile(), config.getCacheMaxAge()).load();
+    }
+
+    /**
+     * saveCache()
+     *
+     * Saves the cache, first dropping the plans that no longer exist if the plan listing was complete.
+     */
+    private static void saveCache(JobCache cache, RequirementPipeline pipeline) throws Exception {
+        if (cache != null) {
+            if (pipeline.isPlanListComplete()) {
+                cache.retain(pipeline.getPlanKeys());
+            }
+            cache.save();
+        }
+    }
+
+    /**
+     * journal()
+     *
+     * The server and the filter rules are part of the run id, so a journal is never resumed against another server
+     * or another selection of plans and jobs.
+     *
+     * @param runId what the sweep applies
+     * @param filter effective filter of the sweep
+     * @return opened Journal, or null for dry runs and when resuming is disabled
+     */
+    private Journal journal(String runId, JobFilter filter) throws Exception {
+        Path file = config.getJournalFile();
+        return file == null || config.isDryRun() ? null
+                : new Journal(file, runId + " on " + config.getBaseUrl() + " filter " + filter.describe()).open();
+    }
+
+    /**
+     * printUnbuildable()
+     *
+     * Lists the jobs left unchanged because no agent could have built them afterwards, with the reason.
+     */
+    private static void printUnbuildable(ArrayList<String> jobKeys, AgentIndex agents) {
+        for (String jobKey : jobKeys) {
+            System.out.println("would become unbuildable: " + jobKey + ": " + agents.explain(jobKey));
+        }
+    }
+
+    private static void finish(Journal journal, boolean clean) throws Exception {
+        if (journal != null && clean) {
+            journal.complete();
+        } else if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void writeMetrics(Metrics metrics) throws Exception {
+        System.out.print(metrics.summary());
+        if (config.getMetricsJson() != null) {
+            metrics.writeJson(config.getMetricsJson());
+        }
+        if (config.getMetricsPrometheus() != null) {
+            metrics.writePrometheus(config.getMetricsPrometheus());
+        }
+    }
+}
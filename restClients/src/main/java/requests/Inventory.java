@@ -0,0 +1,484 @@
+/**
+ * Inventory.java
+ *
+ * Snapshot file of every plan and job with its name, key, requirements and enabled state, for audits that should not
+ * have to query Bamboo again.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Inventory class definition.  A snapshot is a tab separated file with a header line and one row per job:
+ *
+ * <pre>
+ * plan         plan key, ie PROJ-PLAN
+ * planName     plan name, ie "Project - Plan"
+ * planEnabled  true or false, the state of the plan
+ * job          job key, ie PROJ-PLAN-JOB1
+ * name         job name
+ * enabled      true or false, the state of the job itself; it only runs if planEnabled is true as well
+ * requirements ;-separated, each as key (EXISTS), key=value (EQUALS) or key~regex (MATCHES), sorted
+ * </pre>
+ *
+ * A plan without jobs has a single row with empty job, name and requirements, and enabled equal to planEnabled.
+ *
+ * Backslash escapes tab, newline and backslash in every field, and ; = ~ within requirements.  A file name ending in
+ * .gz is gzip compressed.  Rows are written as they arrive (see InventoryExport) and read back one at a time, so
+ * neither side holds the inventory in memory; diff() holds the older snapshot only, as one String per job.  The
+ * Writer writes to a temporary file and only moves it into place on commit(), so an export that dies half way never
+ * leaves a truncated snapshot behind.
+ *
+ * Run main to query or diff snapshots offline:
+ *
+ * <pre>
+ * diff OLD NEW           rows added (+), removed (-) or changed (~) between two snapshots
+ * has FILE KEY           jobs with requirement KEY
+ * missing FILE KEY       jobs without requirement KEY
+ * disabled FILE          rows that do not run: disabled jobs, and every row of a disabled plan
+ * </pre>
+ *
+ */
+public class Inventory {
+
+    public static final String HEADER = "plan\tplanName\tplanEnabled\tjob\tname\tenabled\trequirements";
+
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Run main to query or diff snapshots, see the class comment
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("diff")) {
+            long changes = diff(Paths.get(args[1]), Paths.get(args[2]), (older, newer) -> {
+                if (older == null) {
+                    System.out.println("+ " + newer);
+                } else if (newer == null) {
+                    System.out.println("- " + older);
+                } else {
+                    System.out.println("~ " + older + "\n  " + newer);
+                }
+            });
+            System.out.println("changes: " + changes);
+        } else if (args.length == 3 && (args[0].equals("has") || args[0].equals("missing"))) {
+            boolean has = args[0].equals("has");
+            long[] found = new long[1];
+            long rows = read(Paths.get(args[1]), row -> {
+                if (row.hasJob() && row.hasRequirement(args[2]) == has) {
+                    System.out.println(row);
+                    found[0]++;
+                }
+            });
+            System.out.println("jobs: " + found[0] + " of " + rows);
+        } else if (args.length == 2 && args[0].equals("disabled")) {
+            long[] found = new long[1];
+            long rows = read(Paths.get(args[1]), row -> {
+                if (!row.isEnabled() || !row.isPlanEnabled()) {
+                    System.out.println(row);
+                    found[0]++;
+                }
+            });
+            System.out.println("rows: " + found[0] + " of " + rows);
+        } else {
+            System.out.println("usage: diff OLD NEW | has FILE KEY | missing FILE KEY | disabled FILE");
+        }
+    }
+
+    /**
+     * create()
+     *
+     * @param file snapshot to write, gzip compressed if the name ends in .gz
+     * @return Writer, commit() it to move the snapshot into place
+     */
+    public static Writer create(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    /**
+     * read()
+     *
+     * Streams a snapshot, handing each row to the consumer.
+     *
+     * @param file
+     * @param row receives every row in file order
+     * @return number of rows read
+     */
+    public static long read(Path file, Consumer<Row> row) throws IOException {
+        long rows = 0;
+        try (BufferedReader in = reader(file)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    row.accept(Row.parse(line));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * diff()
+     *
+     * Compares two snapshots by plan and job key.  Rows are compared as written, which is exact because requirements
+     * are sorted on write.
+     *
+     * @param older
+     * @param newer
+     * @param change receives (older row, newer row) for every changed row, with older null for an added row and newer
+     *        null for a removed one; removed rows come last, sorted by plan and job key
+     * @return number of changes
+     */
+    public static long diff(Path older, Path newer, BiConsumer<Row, Row> change) throws IOException {
+        Map<String, String> before = new HashMap<String, String>();
+        try (BufferedReader in = reader(older)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    before.put(key(line), line);
+                }
+            }
+        }
+
+        long changes = 0;
+        try (BufferedReader in = reader(newer)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String previous = before.remove(key(line));
+                if (previous == null) {
+                    change.accept(null, Row.parse(line));
+                    changes++;
+                } else if (!previous.equals(line)) {
+                    change.accept(Row.parse(previous), Row.parse(line));
+                    changes++;
+                }
+            }
+        }
+        List<String> removed = new ArrayList<String>(before.keySet());
+        Collections.sort(removed);
+        for (String key : removed) {
+            change.accept(Row.parse(before.get(key)), null);
+            changes++;
+        }
+        return changes;
+    }
+
+    /**
+     * reader()
+     *
+     * @return reader positioned after the header line
+     */
+    private static BufferedReader reader(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (file.toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in, BUFFER);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER);
+        String header = reader.readLine();
+        if (header != null && !header.equals(HEADER)) {
+            reader.close();
+            throw new IOException(file + " is not an inventory snapshot");
+        }
+        return reader;
+    }
+
+    /**
+     * key()
+     *
+     * @return plan and job key of a row, still escaped; the job key alone is empty for a plan without jobs
+     */
+    private static String key(String line) {
+        return field(line, 0) + "\t" + field(line, 3);
+    }
+
+    /**
+     * field()
+     *
+     * @return field 'index' of a row, still escaped
+     */
+    private static String field(String line, int index) {
+        int start = 0;
+        for (int i=0; i<index; i++) {
+            start = line.indexOf('\t', start) + 1;
+        }
+        int end = line.indexOf('\t', start);
+        return line.substring(start, end < 0 ? line.length() : end);
+    }
+
+    private static String escape(String value, boolean requirement) {
+        StringBuilder escaped = null;
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '\\' ? "\\\\" : c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r"
+                    : requirement && (c == ';' || c == '=' || c == '~') ? "\\" + c : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                escaped.append(replacement == null ? String.valueOf(c) : replacement);
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            unescaped.append(c == '\\' && i + 1 < value.length() ? unescape(value.charAt(++i)) : c);
+        }
+        return unescaped.toString();
+    }
+
+    private static char unescape(char c) {
+        return c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : c;
+    }
+
+    /**
+     * Row class definition.  One job of a snapshot, or a plan without jobs.  The requirements are only decoded when
+     * asked for.
+     */
+    public static class Row {
+
+        private final String planKey;
+        private final String planName;
+        private final boolean planEnabled;
+        private final String jobKey;
+        private final String jobName;
+        private final boolean enabled;
+        private final String requirements;
+
+        /**
+         * @param planKey
+         * @param planName
+         * @param planEnabled
+         * @param jobKey empty for a plan without jobs
+         * @param jobName
+         * @param enabled state of the job itself
+         * @param requirements each as { key, matchType, matchValue }
+         */
+        public Row(String planKey, String planName, boolean planEnabled, String jobKey, String jobName, boolean enabled,
+                List<String[]> requirements) {
+            this.planKey = planKey;
+            this.planName = planName == null ? "" : planName;
+            this.planEnabled = planEnabled;
+            this.jobKey = jobKey;
+            this.jobName = jobName == null ? "" : jobName;
+            this.enabled = enabled;
+            List<String> encoded = new ArrayList<String>(requirements.size());
+            for (String[] requirement : requirements) {
+                String type = requirement[1] == null ? "EXISTS" : requirement[1];
+                String value = requirement[2] == null ? "" : escape(requirement[2], true);
+                encoded.add(escape(requirement[0], true)
+                        + (type.equals("EQUALS") ? "=" + value : type.equals("MATCHES") ? "~" + value : ""));
+            }
+            Collections.sort(encoded);
+            this.requirements = String.join(";", encoded);
+        }
+
+        private Row(String planKey, String planName, boolean planEnabled, String jobKey, String jobName, boolean enabled,
+                String requirements) {
+            this.planKey = planKey;
+            this.planName = planName;
+            this.planEnabled = planEnabled;
+            this.jobKey = jobKey;
+            this.jobName = jobName;
+            this.enabled = enabled;
+            this.requirements = requirements;
+        }
+
+        static Row parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 7) {
+                throw new IllegalArgumentException("malformed inventory row: " + line);
+            }
+            return new Row(unescape(fields[0]), unescape(fields[1]), Boolean.parseBoolean(fields[2]), unescape(fields[3]),
+                    unescape(fields[4]), Boolean.parseBoolean(fields[5]), fields[6]);
+        }
+
+        String format() {
+            return escape(planKey, false) + "\t" + escape(planName, false) + "\t" + planEnabled + "\t" + escape(jobKey, false)
+                    + "\t" + escape(jobName, false) + "\t" + enabled + "\t" + requirements;
+        }
+
+        public String getPlanKey() {
+            return planKey;
+        }
+
+        public String getPlanName() {
+            return planName;
+        }
+
+        public boolean isPlanEnabled() {
+            return planEnabled;
+        }
+
+        /**
+         * hasJob()
+         *
+         * @return false for the row of a plan without jobs
+         */
+        public boolean hasJob() {
+            return !jobKey.isEmpty();
+        }
+
+        public String getJobKey() {
+            return jobKey;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * getRequirements()
+         *
+         * @return requirements of the job, each as { key, matchType, matchValue } with matchValue null for EXISTS
+         */
+        public List<String[]> getRequirements() {
+            List<String[]> decoded = new ArrayList<String[]>();
+            if (requirements.isEmpty()) {
+                return decoded;
+            }
+            StringBuilder key = new StringBuilder();
+            StringBuilder value = null;
+            String type = "EXISTS";
+            for (int i=0; i<=requirements.length(); i++) {
+                char c = i < requirements.length() ? requirements.charAt(i) : ';';
+                StringBuilder current = value == null ? key : value;
+                if (c == '\\' && i + 1 < requirements.length()) {
+                    current.append(unescape(requirements.charAt(++i)));
+                } else if (c == ';') {
+                    decoded.add(new String[] { key.toString(), type, value == null ? null : value.toString() });
+                    key.setLength(0);
+                    value = null;
+                    type = "EXISTS";
+                } else if ((c == '=' || c == '~') && value == null) {
+                    type = c == '=' ? "EQUALS" : "MATCHES";
+                    value = new StringBuilder();
+                } else {
+                    current.append(c);
+                }
+            }
+            return decoded;
+        }
+
+        /**
+         * hasRequirement()
+         *
+         * @param key requirement key
+         * @return true if the job has a requirement on this key, whatever its match type
+         */
+        public boolean hasRequirement(String key) {
+            if (requirements.indexOf(escape(key, true)) < 0) {
+                return false;
+            }
+            for (String[] requirement : getRequirements()) {
+                if (requirement[0].equals(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            String plan = planKey + " '" + planName + "'" + (planEnabled ? "" : " disabled");
+            return !hasJob() ? plan + " no jobs"
+                    : jobKey + " '" + jobName + "'" + (enabled ? "" : " disabled") + " of " + plan + " [" + requirements + "]";
+        }
+    }
+
+    /**
+     * Writer class definition.  Appends rows to a temporary file next to the snapshot; commit() moves it into place
+     * and close() without commit() deletes it.  write() may be called from any number of threads.
+     */
+    public static class Writer implements Closeable {
+
+        private final Path file;
+        private final Path tmp;
+        private final BufferedWriter out;
+        private long rows;
+        private boolean closed;
+
+        Writer(Path file) throws IOException {
+            this.file = file;
+            Path dir = file.toAbsolutePath().getParent();
+            this.tmp = Files.createTempFile(dir == null ? Paths.get(".") : dir, file.getFileName().toString(), ".tmp");
+            OutputStream stream = Files.newOutputStream(tmp);
+            if (file.toString().endsWith(".gz")) {
+                stream = new GZIPOutputStream(stream, BUFFER);
+            }
+            this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER);
+            out.write(HEADER);
+            out.newLine();
+        }
+
+        public synchronized void write(Row row) throws IOException {
+            out.write(row.format());
+            out.newLine();
+            rows++;
+        }
+
+        public synchronized long getRowCount() {
+            return rows;
+        }
+
+        /**
+         * commit()
+         *
+         * Closes the snapshot and moves it over the snapshot file.
+         */
+        public synchronized void commit() throws IOException {
+            out.close();
+            closed = true;
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    out.close();
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * InventoryExport.java
+ *
+ * Writes every job of Bamboo, with its requirements, to an Inventory snapshot in one concurrent pass.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * InventoryExport class definition.  Job discovery is the same streaming RequirementPipeline used for the
+ * package_release sweep; stage three reads the requirements of each job and writes its row instead of changing it,
+ * so only the rows in flight are held in memory.  Rows appear in completion order.  Every exported job counts as
+ * UNCHANGED.  The snapshot is written even if some plans or jobs failed; they are missing from it and reported by
+ * run().
+ *
+ * The JobFilter of the JobRequirements still applies; a filter without rules exports everything.  Jobs are listed
+ * from the plan with its stages expanded instead of the job search, since only that reports the plan name and
+ * whether the plan and each job are enabled; these are held from listing until the job's row is written.  A plan
+ * without any job is written as a single row by stage two, so it still appears in the snapshot.
+ *
+ */
+public class InventoryExport {
+
+    private final JobRequirements requests;
+    private final Map<String, String[]> listed = new ConcurrentHashMap<String, String[]>();
+    private RequirementPipeline pipeline;
+    private long rows;
+
+    /**
+     * @param requests plan and job discovery, its JobFilter selects the jobs to export
+     */
+    public InventoryExport(JobRequirements requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * run()
+     *
+     * @param file snapshot to write, see Inventory
+     * @param concurrency number of workers per stage
+     * @param queueSize capacity of each queue between stages
+     * @return ArrayList with one message per failed plan page, plan or job
+     */
+    public ArrayList<String> run(Path file, int concurrency, int queueSize) throws IOException, InterruptedException {
+        try (Inventory.Writer writer = Inventory.create(file)) {
+            pipeline = new RequirementPipeline(requests, concurrency, queueSize, new RequirementPipeline.JobAction() {
+                @Override
+                public Outcome apply(String jobKey) throws Exception {
+                    return apply(jobKey, "");
+                }
+
+                @Override
+                public Outcome apply(String jobKey, String jobName) throws Exception {
+                    String planKey = jobKey.substring(0, Math.max(0, jobKey.lastIndexOf('-')));
+                    String[] state = listed.remove(jobKey);  // { job enabled, plan name, plan enabled }
+                    writer.write(new Inventory.Row(planKey, state == null ? "" : state[1], state == null || Boolean.parseBoolean(state[2]),
+                            jobKey, jobName, state == null || Boolean.parseBoolean(state[0]), requests.readRequirements(jobKey)));
+                    return Outcome.UNCHANGED;
+                }
+            }).lister((planKey, job) -> {
+                List<String[]> jobs = new ArrayList<String[]>();
+                String[] plan = requests.fetchPlanJobs(planKey, jobs::add);
+                boolean planEnabled = Boolean.parseBoolean(plan[1]);
+                if (plan[2].equals("0")) {
+                    writer.write(new Inventory.Row(planKey, plan[0], planEnabled, "", "", planEnabled, Collections.<String[]>emptyList()));
+                }
+                for (String[] planJob : jobs) {
+                    listed.put(planJob[0], new String[] { planJob[2], plan[0], plan[1] });
+                    job.accept(planJob[0], planJob[1]);
+                }
+            });
+            ArrayList<String> errors = pipeline.run();
+            rows = writer.getRowCount();
+            writer.commit();
+            return errors;
+        }
+    }
+
+    /**
+     * getPipeline()
+     *
+     * @return the pipeline of the last run, for its plan and job counts
+     */
+    public RequirementPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public long getRowCount() {
+        return rows;
+    }
+}
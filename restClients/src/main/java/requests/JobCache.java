@@ -0,0 +1,175 @@
+/**
+ * JobCache.java
+ *
+ * Local on-disk cache of the jobs found in each plan, so a sweep only has to re-read the plans that changed since
+ * the last run.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JobCache class definition.  The cache file (.jobcache by default, next to .credentials) is plain text with one
+ * tab separated record per line:
+ *
+ * <pre>
+ * P  planKey  fetchedMillis  etag  lastModified
+ * J  jobKey   jobName
+ * </pre>
+ *
+ * Each P record is followed by the J records of its jobs.  When Bamboo returned an ETag or Last-Modified header
+ * for a plan, the next fetch is a conditional GET and a 304 replays the cached jobs.  When it returned neither, the
+ * plan is fetched again in full, unless the caller opted in to a maxAge: then the cached jobs are trusted without a
+ * request until they are older than maxAge.
+ *
+ */
+public class JobCache {
+
+    public static final String DEFAULT_FILE = ".jobcache";
+
+    private final Path file;
+    private final long maxAge;
+    private final Map<String, Entry> plans = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param file cache file, read by load() and written by save()
+     * @param maxAge milliseconds a plan without ETag/Last-Modified is reused before it is fetched again, 0 to always fetch
+     */
+    public JobCache(Path file, long maxAge) {
+        this.file = file;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * load()
+     *
+     * Reads the cache file.  A missing file leaves the cache empty, a damaged one is discarded.
+     *
+     * @return this
+     */
+    public JobCache load() {
+        if (!Files.exists(file)) {
+            return this;
+        }
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Entry entry = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals("P") && fields.length == 5) {
+                    entry = new Entry(Long.parseLong(fields[2]), emptyToNull(fields[3]), emptyToNull(fields[4]));
+                    plans.put(fields[1], entry);
+                } else if (fields[0].equals("J") && fields.length == 3 && entry != null) {
+                    entry.jobs.add(new String[] { fields[1], fields[2] });
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Exception in JobCache.load(), ignoring cache: " + e);
+            plans.clear();
+        }
+        return this;
+    }
+
+    /**
+     * save()
+     *
+     * Writes the cache to a temporary file and moves it over the cache file, so an interrupted save never leaves
+     * a truncated cache behind.
+     */
+    public void save() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir == null ? Paths.get(".") : dir, file.getFileName().toString(), ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> plan : plans.entrySet()) {
+                Entry entry = plan.getValue();
+                out.write("P\t" + plan.getKey() + "\t" + entry.fetched + "\t" + clean(entry.etag) + "\t" + clean(entry.lastModified));
+                out.newLine();
+                for (String[] job : entry.jobs) {
+                    out.write("J\t" + job[0] + "\t" + clean(job[1]));
+                    out.newLine();
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * get()
+     *
+     * @param planKey
+     * @return cached entry for the plan or null
+     */
+    public Entry get(String planKey) {
+        return plans.get(planKey);
+    }
+
+    /**
+     * isFresh()
+     *
+     * @param entry
+     * @return true if the entry has no validators and is young enough to be reused without a request
+     */
+    public boolean isFresh(Entry entry) {
+        return entry.etag == null && entry.lastModified == null && System.currentTimeMillis() - entry.fetched < maxAge;
+    }
+
+    public void put(String planKey, Entry entry) {
+        plans.put(planKey, entry);
+    }
+
+    /**
+     * retain()
+     *
+     * Drops the plans that no longer exist in Bamboo.  Only call after a complete plan listing.
+     *
+     * @param planKeys every plan key seen on this run
+     */
+    public void retain(Collection<String> planKeys) {
+        plans.keySet().retainAll(planKeys);
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Entry class definition.  The jobs of one plan as { job key, job name } pairs plus the HTTP validators
+     * returned with them.
+     *
+     */
+    public static class Entry {
+
+        final long fetched;
+        final String etag;
+        final String lastModified;
+        final ArrayList<String[]> jobs = new ArrayList<String[]>();
+
+        public Entry(long fetched, String etag, String lastModified) {
+            this.fetched = fetched;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
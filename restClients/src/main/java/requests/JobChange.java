@@ -0,0 +1,37 @@
+/**
+ * JobChange.java
+ *
+ * One declarative change applied to every job selected by a ChangeSet.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+
+/**
+ * JobChange interface definition.  Implementations read the current state first and only write when it differs, so
+ * applying a change twice is harmless.  In a dry run nothing is written and the outcome that would have resulted
+ * is returned.
+ *
+ */
+public interface JobChange {
+
+    /**
+     * apply()
+     *
+     * @param client
+     * @param jobKey key of the job to change, ie PROJ-PLAN-JOB1
+     * @param dryRun true to only report what would change
+     * @return outcome for this job
+     */
+    Outcome apply(BambooClient client, String jobKey, boolean dryRun) throws IOException;
+
+    /**
+     * describe()
+     *
+     * @return short human readable form, ie "requirement add package_release"
+     */
+    String describe();
+}
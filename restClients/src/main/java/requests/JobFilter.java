@@ -0,0 +1,217 @@
+/**
+ * JobFilter.java
+ *
+ * Configurable include/exclude rules deciding which plans and jobs a sweep touches.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * JobFilter class definition.  Rules apply to one of three fields:
+ *
+ * <pre>
+ * plan     plan key, ie PROJ-PLAN
+ * project  project key, the part of the plan key before the first '-'
+ * job      job name
+ * </pre>
+ *
+ * A filter file has one rule per line in the form field.include=pattern or field.exclude=pattern, and lines starting
+ * with # are comments.  A pattern is a case insensitive glob (* and ?) unless prefixed with regex:, in which case it
+ * is a Java regular expression matched against the whole value.  A value passes when it matches at least one include
+ * (or there are none) and no exclude.
+ *
+ * All rules of a field are compiled once into a single Pattern of the form (?!(?:excludes)$)(?:includes), so each
+ * value is tested with one regex match no matter how many rules there are.
+ *
+ */
+public class JobFilter {
+
+    public static final String DEFAULT_FILE = ".filters";
+
+    private final Rules plan = new Rules();
+    private final Rules project = new Rules();
+    private final Rules job = new Rules();
+    private final ArrayList<String> rules = new ArrayList<String>();
+
+    /**
+     * defaults()
+     *
+     * @return the filter used when no rules are configured: skip the CI project and keep Default or Production jobs
+     */
+    public static JobFilter defaults() {
+        return new JobFilter()
+                .add("plan.exclude=CI-*")
+                .add("job.include=*default*")
+                .add("job.include=*production*");
+    }
+
+    /**
+     * load()
+     *
+     * Reads a filter file.  Falls back to defaults() when the file does not exist.
+     *
+     * @param file
+     * @return JobFilter holding the rules of the file
+     */
+    public static JobFilter load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return defaults();
+        }
+        JobFilter filter = new JobFilter();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    filter.add(line);
+                }
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * add()
+     *
+     * Adds one rule, ie "job.include=*production*" or "plan.exclude=regex:CI-.*".
+     *
+     * @param rule
+     * @return this
+     */
+    public JobFilter add(String rule) {
+        int eq = rule.indexOf('=');
+        int dot = rule.indexOf('.');
+        if (eq < 0 || dot < 0 || dot > eq) {
+            throw new IllegalArgumentException("Filter rule must look like field.include=pattern: " + rule);
+        }
+        String field = rule.substring(0, dot).trim();
+        String kind = rule.substring(dot + 1, eq).trim();
+        String glob = rule.substring(eq + 1).trim();
+        String pattern = toRegex(glob);
+
+        Rules rules;
+        if (field.equals("plan")) {
+            rules = plan;
+        } else if (field.equals("project")) {
+            rules = project;
+        } else if (field.equals("job")) {
+            rules = job;
+        } else {
+            throw new IllegalArgumentException("Unknown filter field '" + field + "' in: " + rule);
+        }
+        if (kind.equals("include")) {
+            rules.includes.add(pattern);
+        } else if (kind.equals("exclude")) {
+            rules.excludes.add(pattern);
+        } else {
+            throw new IllegalArgumentException("Expected include or exclude in: " + rule);
+        }
+        rules.compiled = null;
+        this.rules.add(field + "." + kind + "=" + glob);
+        return this;
+    }
+
+    /**
+     * describe()
+     *
+     * @return every rule in the order added, ie "plan.exclude=CI-* job.include=*default*", or "no rules"
+     */
+    public String describe() {
+        return rules.isEmpty() ? "no rules" : String.join(" ", rules);
+    }
+
+    /**
+     * includePlan()
+     *
+     * @param planKey
+     * @return true if the plan passes both the plan and the project rules
+     */
+    public boolean includePlan(String planKey) {
+        int dash = planKey.indexOf('-');
+        String projectKey = dash < 0 ? planKey : planKey.substring(0, dash);
+        return plan.matches(planKey) && project.matches(projectKey);
+    }
+
+    /**
+     * includeJob()
+     *
+     * @param jobName
+     * @return true if the job passes the job rules
+     */
+    public boolean includeJob(String jobName) {
+        return job.matches(jobName);
+    }
+
+    private static String toRegex(String pattern) {
+        if (pattern.startsWith("regex:")) {
+            return pattern.substring("regex:".length());
+        }
+        StringBuilder regex = new StringBuilder("(?i:");
+        StringBuilder literal = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.append(')').toString();
+    }
+
+    /**
+     * Rules class definition.  The include and exclude patterns of one field and their combined Pattern.
+     *
+     */
+    private static class Rules {
+
+        final ArrayList<String> includes = new ArrayList<String>();
+        final ArrayList<String> excludes = new ArrayList<String>();
+        volatile Pattern compiled;
+
+        boolean matches(String value) {
+            Pattern pattern = compiled;
+            if (pattern == null) {
+                pattern = compile();
+                compiled = pattern;
+            }
+            return pattern.matcher(value).matches();
+        }
+
+        private Pattern compile() {
+            StringBuilder regex = new StringBuilder();
+            if (!excludes.isEmpty()) {
+                regex.append("(?!").append(alternation(excludes)).append("$)");
+            }
+            regex.append(includes.isEmpty() ? "(?s:.*)" : alternation(includes));
+            return Pattern.compile(regex.toString());
+        }
+
+        private static String alternation(ArrayList<String> patterns) {
+            StringBuilder regex = new StringBuilder("(?:");
+            for (int i=0; i<patterns.size(); i++) {
+                if (i > 0) {
+                    regex.append('|');
+                }
+                regex.append("(?:").append(patterns.get(i)).append(')');
+            }
+            return regex.append(')').toString();
+        }
+    }
+}
@@ -9,285 +9,364 @@
  */
 package requests;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
-import org.apache.commons.codec.binary.Base64;
-
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 /**
- * JobRequirements class definition.  A .credentials file MUST be present in the root of the project containing username=XXX and password=YYY.
- * Also, the maxResults defined as a static class member represents the page size of the REST GET for plans.  Please make sure this value is
- * always greater than the number of plans configured in Bamboo.  Since no page handling is being done on the GET response, if the maxResults
- * is too low, you will miss the trunctated plans.
+ * JobRequirements class definition.  A .credentials file MUST be present in the root of the project containing username=XXX and password=YYY
+ * (another file can be given with --credentials, see SweepConfig).  All settings come from the SweepConfig handed to the constructor;
+ * its pageSize is the page size of the REST GET for plans.  Plans are read page by page (see PlanPager) until the total reported by
+ * Bamboo is reached, so pageSize only trades the number of round trips against the size of each response.  Only plans in the shard
+ * of the config are kept.  All REST calls go through the BambooClient handed to the constructor.
  *
  */
 public class JobRequirements {
 
-    public static String baseUrl = "https://bamboo.trustvesta.com/bamboo";
-//    public static String baseUrl = "http://tddvbamboo-a.ad.trustvesta.com:8085/bamboo";  // Staging Bamboo
-
-    public static String user = "michael.howard";
-    public static String maxResults = "999";
+    private final BambooClient client;
+    private final JobCache cache;
+    private final JobFilter filter;
+    private final SweepConfig config;
+    private AgentIndex agents;
+    
+    public JobRequirements(BambooClient client) {
+        this(client, new SweepConfig());
+    }
+    
+    public JobRequirements(BambooClient client, SweepConfig config) {
+        this(client, null, JobFilter.defaults(), config);
+    }
+    
+    public JobRequirements(BambooClient client, JobCache cache, JobFilter filter) {
+        this(client, cache, filter, new SweepConfig());
+    }
+    
+    public JobRequirements(BambooClient client, JobCache cache, JobFilter filter, SweepConfig config) {
+        this.client = client;
+        this.cache = cache;
+        this.filter = filter;
+        this.config = config;
+    }
     
     /**
-     * Run main to execute REST requests
+     * Run main to execute REST requests, see SweepConfig for the options
      */
     public static void main(final String[] args) throws Exception {
-        
-        // Fetch exiting Bamboo plans
-        JsonObject credentials = new JobRequirements().getCredentials();
-        JsonObject plans = new JobRequirements().getPlans(credentials);
-        ArrayList<String> planList = new JobRequirements().parsePlans(plans);
-        System.out.println("size: " + planList.size() + "\n" + planList);
-        ArrayList<String> jobs = new JobRequirements().getJobs(planList, credentials);
-        ArrayList<String> jobList = new JobRequirements().parseJobs(jobs);
-        System.out.println("size: " + jobList.size() + "\n" + jobList);
-        new JobRequirements().setRequirement(jobList, credentials);
+        Cli.main(args);
+    }
 
+    /**
+     * agents()
+     *
+     * Sets the AgentIndex ensureRequirement() checks before adding the requirement.  Without one the requirement is
+     * added wherever it is missing.
+     *
+     * @param agents
+     * @return this
+     */
+    JobRequirements agents(AgentIndex agents) {
+        this.agents = agents;
+        return this;
+    }
+
+    /**
+     * getMetrics()
+     *
+     * @return Metrics of the client, or a fresh instance if there is no client
+     */
+    Metrics getMetrics() {
+        return client == null ? new Metrics() : client.getMetrics();
+    }
+
+    SweepConfig getConfig() {
+        return config;
     }
 
     /**
-     * getCredentials()
+     * getAllPlans()
      * 
-     * Fetches username and password from .credentials which lives in the project root.
+     * Reads every page of plans (see PlanPager) and returns the filtered plan keys in server order.
      * 
-     * @return JSON object containing username and password.
+     * @return ArrayList representing a single plan key per array element
      */
-    JsonObject getCredentials() {
-        //Credentials are read from the '.credentials' file.
-        JsonObject credentials = new JsonObject();
-        String filename = ".credentials";
-        String line = null;
-        
+    ArrayList<String> getAllPlans() {
+        ArrayList<String> keyList = new ArrayList<String>();
+        PlanPager pager = new PlanPager(this, config.getPageSize(), config.getConcurrency());
         try {
-            FileReader fileReader = new FileReader(filename);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-            while((line = bufferedReader.readLine()) != null) {
-                String parts[] = line.split("=");
-                credentials.addProperty(parts[0], parts[1]);
+            while (pager.hasNext()) {
+                keyList.add(pager.next());
             }
-            bufferedReader.close();
-        } catch (Exception e) {
-            System.out.println("Exception in getCredentials(): " + e);
+        } finally {
+            pager.close();
         }
         
-        return credentials;
+        return keyList;
     }
     
     /**
-     * getPlans()
+     * fetchPlans()
      * 
-     * Using the passed in credentials and the baseUrl, build and execute a RESTful GET to Bamboo which returns a JSON
-     * object containing all configured plans.
+     * Performs the RESTful GET for a single page of plans.  The response is streamed (see BambooJson) so only the
+     * plan keys that pass the JobFilter and belong to the shard of the SweepConfig are kept.
      * 
-     * @param credentials
-     * @return JSON object representing all plans
+     * @param startIndex index of the first plan on the page
+     * @param pageSize maximum number of plans on the page
+     * @return PlanPage representing one page of plans
      */
-    JsonObject getPlans(JsonObject credentials) {
-        String response = "";
-        try {
-            String userPassword = credentials.get("username").getAsString() + ":" + credentials.get("password").getAsString();
-            String encoding = new String(Base64.encodeBase64(userPassword.getBytes()));
-
-            URL url = new URL(baseUrl + "/rest/api/latest/plan?max-results=" + maxResults);
-            
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setRequestProperty("Authorization", "Basic " + encoding);
-            
-            BufferedReader br = new BufferedReader(new InputStreamReader(
-                    (conn.getInputStream())));
-            
-            String responseLine;
-            while ((responseLine = br.readLine()) != null) {
-                response += responseLine;
-            }
-            conn.disconnect();
-            
-        } catch (Exception e) {
-            System.out.println("Exception in getPlans(): " + e);
+    PlanPage fetchPlans(int startIndex, int pageSize) throws Exception {
+        try (BambooClient.Response response = client.get("/rest/api/latest/plan?start-index=" + startIndex + "&max-results=" + pageSize)) {
+            return BambooJson.readPlans(response.reader(), planKey -> filter.includePlan(planKey) && config.inShard(planKey));
         }
-        
-        return (JsonObject)new JsonParser().parse(response);
     }
     
     /**
-     * parsePlans()
+     * getJobs()
+     * 
+     * Given the ArrayList of plan keys, this method iterates over each plan key and performs a 
+     * RESTful GET to pull all jobs configured for that plan.  It returns an ArrayList with each element containing the
+     * key of a single job that passes the JobFilter.  Plans are fetched concurrently, up to the concurrency of the
+     * SweepConfig.
+     * 
+     * @param planList
      * 
-     * Read in a JSON object containing all build plans in Bamboo and then parse.  Certain build plans may 
-     * be filtered (ie CI project here).  It returns an ArrayList with only the plan key string in each
-     * element.
-     *  
-     * @param plans
-     * @return ArrayList represending a since plan key per array element
+     * @return ArrayList representing a single job key per array element.
      */
-    ArrayList<String> parsePlans(JsonObject plans) {
-        int startIndex = plans.get("plans").getAsJsonObject().get("start-index").getAsInt();
-        int maxResult = plans.get("plans").getAsJsonObject().get("max-result").getAsInt();
-        JsonArray planArray = plans.get("plans").getAsJsonObject().getAsJsonArray("plan");
-       
-        ArrayList<String> keyList = new ArrayList<String>();
-        for (int i=startIndex; i<maxResult; i++) {
-            String key = planArray.get(i).getAsJsonObject().get("key").getAsString();
-            if ( !key.startsWith("CI-") ) {  // exclude these plans (CI project)
-                keyList.add(key);
-            }
+    ArrayList<String> getJobs(ArrayList<String> planList) {
+        ArrayList<String> errors = new ArrayList<String>();
+        ArrayList<String> jobList = getJobs(planList, config.getConcurrency(), errors);
+        
+        for (int i=0; i<errors.size(); i++) {
+            System.out.println("Exception in getJobs(): " + errors.get(i));
         }
         
-        return keyList;
+        return jobList;
     }
     
     /**
      * getJobs()
      * 
-     * Given the ArrayList of plan keys and the user credentials, this method iterates over each plan key and performs a 
-     * RESTful GET to pull all jobs configured for that plan.  It returns an ArrayList with each element containing a JSON
-     * description of a single job.
+     * Concurrent variant of getJobs().  Plans are fetched on a fixed pool of worker threads so at most 'concurrency'
+     * GETs are in flight at any time.  The returned job keys are grouped in the same order as planList; a plan whose
+     * GET failed contributes no jobs and is instead reported in errors as "planKey: exception".
      * 
      * @param planList
-     * @param credentials
+     * @param concurrency maximum number of requests in flight
+     * @param errors collects one message per failed plan
      * 
-     * @return ArrayList representing a JSON object for each job.
+     * @return ArrayList representing a single job key per array element.
      */
-    ArrayList<String> getJobs(ArrayList<String> planList, JsonObject credentials ) {
-        ArrayList<String> jobDescList = new ArrayList<String>();
+    ArrayList<String> getJobs(ArrayList<String> planList, int concurrency, ArrayList<String> errors) {
+        ArrayList<String> jobList = new ArrayList<String>();
+        ArrayList<Future<ArrayList<String>>> pending = new ArrayList<Future<ArrayList<String>>>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
         
-        for (int i=0; i<planList.size(); i++) {
-            String key = planList.get(i);
-            String response = "";
-            
-            try {
-                String userPassword = credentials.get("username").getAsString() + ":" + credentials.get("password").getAsString();
-                String encoding = new String(Base64.encodeBase64(userPassword.getBytes()));
-
-                URL url = new URL(baseUrl + "/rest/api/latest/search/jobs/" + key);
-                
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                conn.setRequestProperty("Accept", "application/json");
-                conn.setRequestProperty("Authorization", "Basic " + encoding);
-                
-                BufferedReader br = new BufferedReader(new InputStreamReader(
-                        (conn.getInputStream())));
-                
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    response += responseLine + "\n";
+        try {
+            for (int i=0; i<planList.size(); i++) {
+                final String key = planList.get(i);
+                pending.add(executor.submit(() -> {
+                    ArrayList<String> planJobs = new ArrayList<String>();
+                    fetchJobs(key, (jobKey, jobName) -> planJobs.add(jobKey));
+                    return planJobs;
+                }));
+            }
+            for (int i=0; i<pending.size(); i++) {
+                try {
+                    jobList.addAll(pending.get(i).get());
+                } catch (ExecutionException e) {
+                    errors.add(planList.get(i) + ": " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    errors.add(planList.get(i) + ": " + e);
+                    break;
                 }
-                conn.disconnect();
-                jobDescList.add(response);
-                
-            } catch (Exception e) {
-                System.out.println("Exception in getJobs(): " + e);
             }
+        } finally {
+            executor.shutdownNow();
         }
         
-        return jobDescList;
+        return jobList;
     }
     
     /**
-     * parseJobs()
+     * fetchJobs()
      * 
-     * Given an ArrayList of JSON job descriptions, this method parses out each one.  It builds another ArrayList 
-     * that only contains the job key.  Job name is also read and filtered out if it doesn't contain "Default" or
-     * "Production"
+     * Performs the RESTful GET of all jobs configured for a single plan and hands the jobs passing the JobFilter to
+     * the consumer.
      * 
-     * @param jobs
-     * @return
+     * @param key plan key
+     * @param job receives (job key, job name) for each matching job of the plan
      */
-    ArrayList<String> parseJobs( ArrayList<String> jobs) {
-        ArrayList<String> jobList = new ArrayList<String>();
-        
-        for (int i=0; i<jobs.size(); i++) {
-            
-            try {
-                JsonObject planJobs = (JsonObject)new JsonParser().parse(jobs.get(i));
-                int size = planJobs.get("size").getAsInt();
-                JsonArray jobsArray = planJobs.getAsJsonArray("searchResults");
-                for (int j=0; j<size; j++) {
-                    JsonObject job = jobsArray.get(j).getAsJsonObject();
-                    String jobName = job.get("searchEntity").getAsJsonObject().get("jobName").getAsString();
-                    if (jobName.toLowerCase().contains("default") || jobName.toLowerCase().contains("production")) {
-                        jobList.add(job.get("searchEntity").getAsJsonObject().get("key").getAsString());
-                    }
-                }
-            } catch (Exception e) {
-                System.out.println("Exception in parseJobs(): " + e);
+    void fetchJobs(String key, BiConsumer<String, String> job) throws Exception {
+        fetchJobs(key, filter::includeJob, job);
+    }
+    
+    /**
+     * fetchJobs()
+     * 
+     * Performs the RESTful GET of all jobs configured for a single plan.  The response is streamed straight from
+     * the connection and only the key and jobName of each job passing jobFilter are handed to the consumer.
+     * 
+     * With a JobCache every job is recorded for the next run.  A plan cached with an ETag or Last-Modified is
+     * fetched with a conditional GET and a 304 replays the cached jobs; a plan cached without either is replayed
+     * without a request while it is fresh.
+     * 
+     * @param key plan key
+     * @param jobFilter job names failing this test are skipped
+     * @param job receives (job key, job name) for each accepted job of the plan
+     */
+    void fetchJobs(String key, Predicate<String> jobFilter, BiConsumer<String, String> job) throws Exception {
+        String path = "/rest/api/latest/search/jobs/" + key;
+        if (cache == null) {
+            try (BambooClient.Response response = client.get(path)) {
+                BambooJson.readJobs(response.reader(), jobFilter, job);
             }
+            return;
         }
         
-        return jobList;
+        JobCache.Entry cached = cache.get(key);
+        Map<String, String> headers = new HashMap<String, String>();
+        if (cached != null) {
+            if (cache.isFresh(cached)) {
+                replay(cached, jobFilter, job);
+                return;
+            }
+            if (cached.etag != null) {
+                headers.put("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null) {
+                headers.put("If-Modified-Since", cached.lastModified);
+            }
+        }
+        try (BambooClient.Response response = client.get(path, headers)) {
+            if (cached != null && response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                replay(cached, jobFilter, job);
+                return;
+            }
+            JobCache.Entry entry = new JobCache.Entry(System.currentTimeMillis(), response.getHeader("ETag"), response.getHeader("Last-Modified"));
+            BambooJson.readJobs(response.reader(), jobName -> true, (jobKey, jobName) -> {
+                entry.jobs.add(new String[] { jobKey, jobName });
+                if (jobFilter.test(jobName)) {
+                    job.accept(jobKey, jobName);
+                }
+            });
+            cache.put(key, entry);
+        }
     }
     
     /**
-     * setRequirements()
+     * fetchPlanJobs()
+     * 
+     * Performs the RESTful GET of a single plan with its stages expanded.  Unlike the job search this reports whether
+     * each job is enabled, at the same one request per plan; it is not cached.
      * 
-     * Given an ArrayList of job keys and the credentials, this method invokes a private Bamboo API to add a 
-     * new requirement to each job.  It performs a RESTful POST using each job key and adds the "package_release"
-     * requirement.
+     * @param key plan key
+     * @param job receives { job key, job name, "true" or "false" } for each job of the plan passing the JobFilter
+     * @return { plan name, plan enabled "true" or "false", number of jobs of the plan before filtering }
+     */
+    String[] fetchPlanJobs(String key, Consumer<String[]> job) throws Exception {
+        try (BambooClient.Response response = client.get("/rest/api/latest/plan/" + key + "?expand=stages.stage.plans")) {
+            return BambooJson.readPlanJobs(response.reader(), filter::includeJob, job);
+        }
+    }
+    
+    private static void replay(JobCache.Entry cached, Predicate<String> jobFilter, BiConsumer<String, String> job) {
+        for (String[] cachedJob : cached.jobs) {
+            if (jobFilter.test(cachedJob[1])) {
+                job.accept(cachedJob[0], cachedJob[1]);
+            }
+        }
+    }
+    
+    /**
+     * ensureRequirement()
      * 
-     * Note that if the requirement is already there, a 400 response is sent back and the POST operation throws
-     * an exception.  This is not being directly handled but it's ok.  Since it's looping over all the job keys,
-     * if 1 fails and throws an exception, it's caught and just moves to the next job key.  Keep an eye on the
-     * console for what's happening here.
+     * Reads the requirements of a single job and adds "package_release" only if it is missing and, when an AgentIndex
+     * is set, some agent can still build the job afterwards.
      * 
-     * @param jobList
-     * @param credentials
+     * @param jobName job key
+     * @return ADDED, UNCHANGED or UNBUILDABLE
      */
-    void setRequirement(ArrayList<String> jobList, JsonObject credentials) {
-        
-        for (int i=0; i<jobList.size(); i++) {
-            String jobName = jobList.get(i);
-            String response = "";
-            
-            try {
-                String userPassword = credentials.get("username").getAsString() + ":" + credentials.get("password").getAsString();
-                String encoding = new String(Base64.encodeBase64(userPassword.getBytes()));
-
-                URL url = new URL(baseUrl + "/rest/api/latest/config/job/" + jobName + "/requirement");
-                
-                JsonObject postData = new JsonObject();
-                postData.addProperty("key" , "package_release");
-                postData.addProperty("matchType", "EXISTS");
-                
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Accept", "application/json");
-                conn.setRequestProperty("Authorization", "Basic " + encoding);
-                
+    Outcome ensureRequirement(String jobName) throws Exception {
+        if (agents == null) {
+            if (getRequirements(jobName).contains("package_release")) {
+                return Outcome.UNCHANGED;
+            }
+            return addRequirement(jobName);
+        }
 
-                conn.setDoOutput( true );
-                conn.setInstanceFollowRedirects( false );
-                conn.setRequestProperty( "Content-Type", "application/json"); 
-                conn.setRequestProperty( "charset", "utf-8");
-                conn.setRequestProperty( "Content-Length", String.valueOf( postData.size() ));
-                conn.setUseCaches( false );
-                conn.getOutputStream().write(postData.toString().getBytes("UTF-8"));
-           
-                BufferedReader br = new BufferedReader(new InputStreamReader(
-                        (conn.getInputStream())));
-                
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    response += responseLine + "\n";
-                }
-                conn.disconnect();
-                System.out.println("Response after setting requirement: " + response);
-                
-            } catch (Exception e) {
-                System.out.println("Exception in setRequirement(): " + e);
+        List<String[]> requirements = readRequirements(jobName);
+        for (String[] requirement : requirements) {
+            if ("package_release".equals(requirement[0])) {
+                return Outcome.UNCHANGED;
             }
         }
-        return;
+        requirements.add(new String[] { "package_release", "EXISTS", null });
+        if (!agents.check(jobName, requirements)) {
+            return Outcome.UNBUILDABLE;
+        }
+        return addRequirement(jobName);
+    }
+    
+    /**
+     * getRequirements()
+     * 
+     * Performs the RESTful GET of the requirements configured on a single job.  Bamboo offers no bulk form of this
+     * call, so it is one GET per job.
+     * 
+     * @param jobName job key
+     * @return Set of requirement keys
+     */
+    Set<String> getRequirements(String jobName) throws Exception {
+        try (BambooClient.Response response = client.get("/rest/api/latest/config/job/" + jobName + "/requirement")) {
+            return BambooJson.readRequirementKeys(response.reader());
+        }
+    }
+    
+    /**
+     * readRequirements()
+     * 
+     * Performs the RESTful GET of the requirements configured on a single job, keeping their match type and value.
+     * 
+     * @param jobName job key
+     * @return one { key, matchType, matchValue } per requirement
+     */
+    List<String[]> readRequirements(String jobName) throws Exception {
+        try (BambooClient.Response response = client.get("/rest/api/latest/config/job/" + jobName + "/requirement")) {
+            return BambooJson.readObjects(response.reader(), "key", "matchType", "matchValue");
+        }
+    }
+    
+    /**
+     * addRequirement()
+     * 
+     * Performs the RESTful POST adding the "package_release" requirement to a single job.  A dry run only reports
+     * the job as ADDED.
+     * 
+     * @param jobName job key
+     * @return ADDED
+     */
+    Outcome addRequirement(String jobName) throws Exception {
+        if (config.isDryRun()) {
+            return Outcome.ADDED;
+        }
+        JsonObject postData = new JsonObject();
+        postData.addProperty("key" , "package_release");
+        postData.addProperty("matchType", "EXISTS");
+        
+        client.post("/rest/api/latest/config/job/" + jobName + "/requirement", postData).close();
+        return Outcome.ADDED;
     }
 
 }
@@ -0,0 +1,58 @@
+/**
+ * JobResult.java
+ *
+ * Outcome of applying a ChangeSet to one job.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.util.ArrayList;
+
+/**
+ * JobResult class definition.  One line per change, plus an overall outcome: FAILED if any change failed,
+ * UNBUILDABLE if any change was held back by the agent check, UNCHANGED if none wrote anything, the single kind of
+ * write if all writes were alike and MODIFIED otherwise.
+ *
+ */
+public class JobResult {
+
+    private final String jobKey;
+    private final ArrayList<String> details = new ArrayList<String>();
+    private Outcome outcome = Outcome.UNCHANGED;
+    private boolean failed;
+    private boolean unbuildable;
+
+    public JobResult(String jobKey) {
+        this.jobKey = jobKey;
+    }
+
+    void add(String change, Outcome changeOutcome, String error) {
+        details.add(change + ": " + changeOutcome + (error == null ? "" : " " + error));
+        if (changeOutcome == Outcome.FAILED) {
+            failed = true;
+        } else if (changeOutcome == Outcome.UNBUILDABLE) {
+            unbuildable = true;
+        } else if (changeOutcome != Outcome.UNCHANGED) {
+            outcome = outcome == Outcome.UNCHANGED || outcome == changeOutcome ? changeOutcome : Outcome.MODIFIED;
+        }
+    }
+
+    public String getJobKey() {
+        return jobKey;
+    }
+
+    public Outcome getOutcome() {
+        return failed ? Outcome.FAILED : unbuildable ? Outcome.UNBUILDABLE : outcome;
+    }
+
+    public ArrayList<String> getDetails() {
+        return details;
+    }
+
+    @Override
+    public String toString() {
+        return jobKey + " " + getOutcome() + " " + details;
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Journal.java
+ *
+ * Append-only checkpoint journal of a sweep, so an interrupted run can continue where it stopped.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal class definition.  The journal file (.journal by default) is plain text, one tab separated record per line:
+ *
+ * <pre>
+ * R  runId             first line, identifies what the sweep applies
+ * J  jobKey  outcome   the job was updated (or found unchanged)
+ * P  planKey           every job of the plan is done
+ * </pre>
+ *
+ * A restarted run with the same runId skips the plans with a P record without fetching their jobs, and skips the
+ * jobs with a J record.  A journal of another run is discarded.
+ *
+ * Records are buffered and written with a single write and fsync once 'batchSize' records are pending or
+ * 'syncMillis' have passed, so a sweep pays one fsync per batch rather than per job.  A crash loses at most the
+ * unsynced batch, whose jobs are then simply done again; every update is a diff, so repeating one is harmless.  A
+ * last line without its newline is torn, even if it parses, and is ignored on load.
+ *
+ * Delete the journal with complete() once a run has finished cleanly, so the next run starts from the beginning.
+ *
+ */
+public class Journal implements Closeable {
+
+    public static final String DEFAULT_FILE = ".journal";
+
+    private final Path file;
+    private final String runId;
+    private final int batchSize;
+    private final long syncMillis;
+    private final Set<String> plans = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> jobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRecords;
+    private FileChannel channel;
+    private ScheduledExecutorService syncer;
+
+    /**
+     * @param file journal file
+     * @param runId identifies the change applied by the sweep; a journal written for another runId is discarded
+     */
+    public Journal(Path file, String runId) {
+        this(file, runId, 256, 1000);
+    }
+
+    /**
+     * @param file journal file
+     * @param runId identifies the change applied by the sweep
+     * @param batchSize records buffered before they are written and synced
+     * @param syncMillis longest time a record stays buffered
+     */
+    public Journal(Path file, String runId, int batchSize, long syncMillis) {
+        this.file = file;
+        this.runId = runId.replace('\t', ' ').replace('\n', ' ');
+        this.batchSize = Math.max(1, batchSize);
+        this.syncMillis = Math.max(1, syncMillis);
+    }
+
+    /**
+     * open()
+     *
+     * Reads what an earlier run of the same runId completed, then opens the journal for appending.
+     *
+     * @return this
+     */
+    public Journal open() throws IOException {
+        boolean resume = false;
+        boolean torn = false;
+        if (Files.exists(file)) {
+            // Read the last byte first: a last line without its newline is a torn record, and may still look like a
+            // valid one, ie "P\tPRJ-P1" cut from "P\tPRJ-P10"
+            ByteBuffer last = ByteBuffer.allocate(1);
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                torn = in.size() > 0 && in.read(last, in.size() - 1) == 1 && last.get(0) != '\n';
+            }
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line = in.readLine();
+                resume = line != null && line.equals("R\t" + runId);
+                String next = resume ? in.readLine() : null;
+                while ((line = next) != null) {
+                    next = in.readLine();
+                    if (next == null && torn) {
+                        break;
+                    }
+                    String[] fields = line.split("\t", -1);
+                    if (fields[0].equals("J") && fields.length == 3 && !fields[1].isEmpty() && !fields[2].isEmpty()) {
+                        jobs.add(fields[1]);
+                    } else if (fields[0].equals("P") && fields.length == 2 && !fields[1].isEmpty()) {
+                        plans.add(fields[1]);
+                    }
+                }
+            }
+            if (!resume) {
+                System.out.println("Journal " + file + " belongs to another run, starting over");
+            }
+        }
+        if (resume) {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (torn) {
+                append("");  // terminate the torn record so it stays skipped instead of merging with the next one
+            }
+        } else {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            append("R\t" + runId);
+        }
+        sync();
+
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::syncQuietly, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * isPlanDone()
+     *
+     * @param planKey
+     * @return true if every job of the plan was done by an earlier run
+     */
+    public boolean isPlanDone(String planKey) {
+        return plans.contains(planKey);
+    }
+
+    /**
+     * isJobDone()
+     *
+     * @param jobKey
+     * @return true if the job was done by an earlier run
+     */
+    public boolean isJobDone(String jobKey) {
+        return jobs.contains(jobKey);
+    }
+
+    public int getDoneJobCount() {
+        return jobs.size();
+    }
+
+    public void jobDone(String jobKey, Outcome outcome) throws IOException {
+        append("J\t" + jobKey + "\t" + outcome);
+    }
+
+    public void planDone(String planKey) throws IOException {
+        append("P\t" + planKey);
+    }
+
+    /**
+     * sync()
+     *
+     * Writes and fsyncs every buffered record.
+     */
+    public synchronized void sync() throws IOException {
+        byte[] bytes;
+        synchronized (pending) {
+            if (pending.length() == 0) {
+                return;
+            }
+            bytes = pending.toString().getBytes(StandardCharsets.UTF_8);
+            pending.setLength(0);
+            pendingRecords = 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * close()
+     *
+     * Syncs the remaining records and closes the file, keeping the journal for the next run.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * complete()
+     *
+     * Closes and deletes the journal after a run that finished every plan and job.
+     */
+    public void complete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    private void append(String record) throws IOException {
+        boolean full;
+        synchronized (pending) {
+            pending.append(record).append('\n');
+            full = ++pendingRecords >= batchSize;
+        }
+        if (full) {
+            sync();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.out.println("Exception in Journal.sync(): " + e);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/**
+ * Metrics.java
+ *
+ * Per endpoint request statistics and phase timings for a sweep.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Metrics class definition.  BambooClient records every HTTP attempt against an endpoint, which is the method plus
+ * the path with plan/job keys and ids replaced by placeholders (ie GET /search/jobs/{key}).  Per endpoint it keeps
+ * request, retry and error-status counts, bytes received and a latency histogram (time to response headers).
+ * RequirementPipeline records the wall-clock time spent in each phase and RequestScheduler each opening of its circuit.
+ *
+ * The histogram has 8 sub-buckets per power of two microseconds, so reported percentiles are within 12.5% of the
+ * true value while recording stays a lock free array increment.
+ *
+ * Reports are available as a text summary, JSON and the Prometheus text exposition format.
+ *
+ */
+public class Metrics {
+
+    private static final Pattern KEY = Pattern.compile("/(search/jobs|config/job|plan|result|agent)/[A-Z0-9][A-Z0-9-]*");
+    private static final Pattern ID = Pattern.compile("/(requirement|variables)/[^/]+");
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final Map<String, Phase> phases = new ConcurrentHashMap<String, Phase>();
+    private final LongAdder circuitOpens = new LongAdder();
+
+    /**
+     * endpoint()
+     *
+     * @param method HTTP method
+     * @param path REST path, query string allowed
+     * @return normalized endpoint name, ie "GET /rest/api/latest/search/jobs/{key}"
+     */
+    static String endpoint(String method, String path) {
+        int query = path.indexOf('?');
+        String normalized = query < 0 ? path : path.substring(0, query);
+        normalized = KEY.matcher(normalized).replaceAll("/$1/{key}");
+        normalized = ID.matcher(normalized).replaceAll("/$1/{id}");
+        return method + " " + normalized;
+    }
+
+    /**
+     * request()
+     *
+     * Records one HTTP attempt.
+     *
+     * @param endpoint see endpoint()
+     * @param status HTTP status, or -1 when no response was received
+     * @param nanos time from sending to response headers
+     * @param retry true if this attempt repeats an earlier one
+     */
+    public void request(String endpoint, int status, long nanos, boolean retry) {
+        Endpoint stats = stats(endpoint);
+        stats.requests.increment();
+        if (retry) {
+            stats.retries.increment();
+        }
+        if (status < 0 || status >= 400) {
+            stats.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+        stats.latency.record(nanos / 1000);
+    }
+
+    /**
+     * received()
+     *
+     * @param endpoint see endpoint()
+     * @param bytes response body bytes read
+     */
+    public void received(String endpoint, long bytes) {
+        stats(endpoint).bytes.add(bytes);
+    }
+
+    /**
+     * phaseStart()
+     *
+     * Marks a worker entering a phase.  A phase is timed while at least one worker is in it, so when the Metrics are
+     * shared by several runs the idle time between them is not counted.
+     *
+     * @param phase ie "plan discovery"
+     */
+    public void phaseStart(String phase) {
+        phases.computeIfAbsent(phase, p -> new Phase()).start(System.nanoTime());
+    }
+
+    public void phaseEnd(String phase) {
+        phases.computeIfAbsent(phase, p -> new Phase()).end(System.nanoTime());
+    }
+
+    /**
+     * circuitOpened()
+     *
+     * Records the circuit of the RequestScheduler opening, after repeated failures or a failed probe.
+     */
+    public void circuitOpened() {
+        circuitOpens.increment();
+    }
+
+    public long getCircuitOpenCount() {
+        return circuitOpens.sum();
+    }
+
+    /**
+     * summary()
+     *
+     * @return multi line, human readable report
+     */
+    public String summary() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Phase> phase : new TreeMap<String, Phase>(phases).entrySet()) {
+            text.append(String.format("phase %-22s %10.1f ms%n", phase.getKey(), phase.getValue().millis()));
+        }
+        if (circuitOpens.sum() > 0) {
+            text.append("circuit opened " + circuitOpens.sum() + " times\n");
+        }
+        text.append(String.format("%-55s %8s %7s %9s %9s %12s  %s%n", "endpoint", "requests", "retries", "p50 ms", "p99 ms", "bytes", "errors"));
+        for (Map.Entry<String, Endpoint> entry : new TreeMap<String, Endpoint>(endpoints).entrySet()) {
+            Endpoint stats = entry.getValue();
+            text.append(String.format("%-55s %8d %7d %9.1f %9.1f %12d  %s%n", entry.getKey(), stats.requests.sum(), stats.retries.sum(),
+                    stats.latency.percentile(0.50) / 1000.0, stats.latency.percentile(0.99) / 1000.0, stats.bytes.sum(), stats.statusCounts()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * toJson()
+     *
+     * @return report as a JSON object
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        JsonObject phaseJson = new JsonObject();
+        for (Map.Entry<String, Phase> phase : new TreeMap<String, Phase>(phases).entrySet()) {
+            phaseJson.addProperty(phase.getKey(), phase.getValue().millis());
+        }
+        json.add("phasesMillis", phaseJson);
+        json.addProperty("circuitOpens", circuitOpens.sum());
+
+        JsonObject endpointJson = new JsonObject();
+        for (Map.Entry<String, Endpoint> entry : new TreeMap<String, Endpoint>(endpoints).entrySet()) {
+            Endpoint stats = entry.getValue();
+            JsonObject one = new JsonObject();
+            one.addProperty("requests", stats.requests.sum());
+            one.addProperty("retries", stats.retries.sum());
+            one.addProperty("bytes", stats.bytes.sum());
+            one.addProperty("p50Millis", stats.latency.percentile(0.50) / 1000.0);
+            one.addProperty("p99Millis", stats.latency.percentile(0.99) / 1000.0);
+            JsonObject errors = new JsonObject();
+            for (Map.Entry<Integer, Long> status : stats.statusCounts().entrySet()) {
+                errors.addProperty(String.valueOf(status.getKey()), status.getValue());
+            }
+            one.add("errors", errors);
+            endpointJson.add(entry.getKey(), one);
+        }
+        json.add("endpoints", endpointJson);
+        return json;
+    }
+
+    /**
+     * writeJson()
+     *
+     * @param file
+     */
+    public void writeJson(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(toJson(), out);
+        }
+    }
+
+    /**
+     * writePrometheus()
+     *
+     * Writes the report in the Prometheus text format, ie for the node_exporter textfile collector.  Each metric
+     * family is written as one group, its TYPE line followed by the samples of every endpoint.
+     *
+     * @param file
+     */
+    public void writePrometheus(Path file) throws IOException {
+        Map<String, Endpoint> sorted = new TreeMap<String, Endpoint>(endpoints);
+        StringBuilder text = new StringBuilder();
+        text.append("# TYPE bamboo_sweep_phase_seconds gauge\n");
+        for (Map.Entry<String, Phase> phase : new TreeMap<String, Phase>(phases).entrySet()) {
+            text.append("bamboo_sweep_phase_seconds{phase=\"").append(phase.getKey()).append("\"} ")
+                .append(phase.getValue().millis() / 1000.0).append('\n');
+        }
+        text.append("# TYPE bamboo_rest_circuit_opens_total counter\n");
+        text.append("bamboo_rest_circuit_opens_total ").append(circuitOpens.sum()).append('\n');
+
+        text.append("# TYPE bamboo_rest_requests_total counter\n");
+        for (Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            text.append("bamboo_rest_requests_total{").append(label(entry.getKey())).append("} ")
+                .append(entry.getValue().requests.sum()).append('\n');
+        }
+        text.append("# TYPE bamboo_rest_retries_total counter\n");
+        for (Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            text.append("bamboo_rest_retries_total{").append(label(entry.getKey())).append("} ")
+                .append(entry.getValue().retries.sum()).append('\n');
+        }
+        text.append("# TYPE bamboo_rest_received_bytes_total counter\n");
+        for (Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            text.append("bamboo_rest_received_bytes_total{").append(label(entry.getKey())).append("} ")
+                .append(entry.getValue().bytes.sum()).append('\n');
+        }
+        text.append("# TYPE bamboo_rest_errors_total counter\n");
+        for (Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            for (Map.Entry<Integer, Long> status : entry.getValue().statusCounts().entrySet()) {
+                text.append("bamboo_rest_errors_total{").append(label(entry.getKey())).append(",status=\"").append(status.getKey())
+                    .append("\"} ").append(status.getValue()).append('\n');
+            }
+        }
+        text.append("# TYPE bamboo_rest_latency_seconds summary\n");
+        for (Map.Entry<String, Endpoint> entry : sorted.entrySet()) {
+            String label = label(entry.getKey());
+            Histogram latency = entry.getValue().latency;
+            text.append("bamboo_rest_latency_seconds{").append(label).append(",quantile=\"0.5\"} ")
+                .append(latency.percentile(0.50) / 1e6).append('\n');
+            text.append("bamboo_rest_latency_seconds{").append(label).append(",quantile=\"0.99\"} ")
+                .append(latency.percentile(0.99) / 1e6).append('\n');
+            text.append("bamboo_rest_latency_seconds_sum{").append(label).append("} ").append(latency.sum() / 1e6).append('\n');
+            text.append("bamboo_rest_latency_seconds_count{").append(label).append("} ").append(latency.count()).append('\n');
+        }
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String label(String endpoint) {
+        return "endpoint=\"" + endpoint + "\"";
+    }
+
+    private Endpoint stats(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, e -> new Endpoint());
+    }
+
+    /**
+     * Endpoint class definition.  Counters of one endpoint.
+     */
+    private static class Endpoint {
+
+        final LongAdder requests = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<Integer, LongAdder>();
+        final Histogram latency = new Histogram();
+
+        Map<Integer, Long> statusCounts() {
+            Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+            for (Map.Entry<Integer, LongAdder> status : statuses.entrySet()) {
+                counts.put(status.getKey(), status.getValue().sum());
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Histogram class definition.  Log-linear buckets over microseconds, plus the exact count and sum.
+     */
+    static class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            buckets.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        /**
+         * sum()
+         *
+         * @return total of all recorded values, in microseconds
+         */
+        long sum() {
+            return sum.sum();
+        }
+
+        /**
+         * percentile()
+         *
+         * @param quantile between 0 and 1
+         * @return upper bound of the bucket holding the quantile, in microseconds
+         */
+        long percentile(double quantile) {
+            long total = 0;
+            for (int i=0; i<buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i=0; i<buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(buckets.length() - 1);
+        }
+
+        static int index(long value) {
+            if (value < SUB) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);  // value >= 2^exponent
+            int sub = (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+            return (exponent - SUB_BITS + 1) * SUB + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < SUB) {
+                return index;
+            }
+            int exponent = index / SUB + SUB_BITS - 1;
+            long sub = index % SUB;
+            return ((SUB + sub + 1) << (exponent - SUB_BITS)) - 1;
+        }
+    }
+
+    /**
+     * Phase class definition.  Total time during which at least one worker was in the phase.  Workers only enter and
+     * leave a phase once per run, so the lock is never contended.
+     */
+    private static class Phase {
+
+        private int active;
+        private long since;
+        private long total;
+
+        synchronized void start(long now) {
+            if (active++ == 0) {
+                since = now;
+            }
+        }
+
+        synchronized void end(long now) {
+            if (active > 0 && --active == 0) {
+                total += now - since;
+            }
+        }
+
+        synchronized double millis() {
+            return (total + (active > 0 ? System.nanoTime() - since : 0)) / 1e6;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * MutationEngine.java
+ *
+ * Applies a ChangeSet to every matching job in Bamboo in one concurrent pass.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * MutationEngine class definition.  Job discovery is the same streaming RequirementPipeline used for the
+ * package_release sweep; stage three applies the ChangeSet instead.  Each job yields a JobResult.  With dryRun set the
+ * current state is still read, so the results show exactly what a real run would write, but nothing is written.
+ *
+ */
+public class MutationEngine {
+
+    private final JobRequirements requests;
+    private final BambooClient client;
+    private final ChangeSet changes;
+    private final boolean dryRun;
+    private final ConcurrentLinkedQueue<JobResult> results = new ConcurrentLinkedQueue<JobResult>();
+    private RequirementPipeline pipeline;
+    private Journal journal;
+
+    /**
+     * @param requests job discovery, its JobFilter selects the jobs to change
+     * @param client used to apply the changes
+     * @param changes
+     * @param dryRun true to only report what would change
+     */
+    public MutationEngine(JobRequirements requests, BambooClient client, ChangeSet changes, boolean dryRun) {
+        this.requests = requests;
+        this.client = client;
+        this.changes = changes;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Run main to apply a change set: changeSetFile [options], see SweepConfig.USAGE
+     */
+    public static void main(final String[] args) throws Exception {
+        String[] options = new String[args.length + 1];
+        options[0] = "--changes";
+        System.arraycopy(args, 0, options, 1, args.length);
+        Cli.main(options);
+    }
+
+    /**
+     * journal()
+     *
+     * Sets the Journal used to resume an interrupted run of the same change set.  Not used for dry runs.
+     *
+     * @param journal an opened Journal, or null
+     * @return this
+     */
+    public MutationEngine journal(Journal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * run()
+     *
+     * @param concurrency number of workers per stage
+     * @param queueSize capacity of each queue between stages
+     * @return ArrayList with one message per failed plan page or plan
+     */
+    public ArrayList<String> run(int concurrency, int queueSize) throws InterruptedException {
+        pipeline = new RequirementPipeline(requests, concurrency, queueSize, jobKey -> {
+            JobResult result = changes.apply(client, jobKey, dryRun);
+            results.add(result);
+            return result.getOutcome();
+        });
+        return pipeline.journal(dryRun ? null : journal).run();
+    }
+
+    /**
+     * getResults()
+     *
+     * @return one JobResult per job, in completion order
+     */
+    public ArrayList<JobResult> getResults() {
+        return new ArrayList<JobResult>(results);
+    }
+
+    /**
+     * getResults()
+     *
+     * @param outcome
+     * @return JobResults with the given overall outcome, ie UNBUILDABLE for the jobs held back by the agent check
+     */
+    public ArrayList<JobResult> getResults(Outcome outcome) {
+        ArrayList<JobResult> matching = new ArrayList<JobResult>();
+        for (JobResult result : results) {
+            if (result.getOutcome() == outcome) {
+                matching.add(result);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * getUnbuildable()
+     *
+     * @return sorted keys of the jobs held back by the agent check; AgentIndex.explain(jobKey) gives the reason
+     */
+    public ArrayList<String> getUnbuildable() {
+        return pipeline == null ? new ArrayList<String>() : pipeline.getUnbuildable();
+    }
+
+    /**
+     * getCount()
+     *
+     * @param outcome
+     * @return number of jobs with the given overall outcome
+     */
+    public int getCount(Outcome outcome) {
+        return pipeline == null ? 0 : pipeline.getCount(outcome);
+    }
+
+    /**
+     * summary()
+     *
+     * @return one line with the number of plans, jobs and jobs per outcome
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("plans: ").append(pipeline.getPlanCount()).append(", jobs: ").append(pipeline.getJobCount())
+            .append(", resumed: ").append(pipeline.getResumedCount());
+        for (Outcome outcome : Outcome.values()) {
+            summary.append(", ").append(outcome.name().toLowerCase()).append(": ").append(getCount(outcome));
+        }
+        return summary.toString();
+    }
+}
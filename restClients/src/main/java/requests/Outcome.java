@@ -0,0 +1,34 @@
+/**
+ * Outcome.java
+ *
+ * Result of applying a change to a single job.  In a dry run it is the result that would have been written.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+/**
+ * Outcome enum definition.
+ *
+ */
+public enum Outcome {
+
+    /** The change was written to Bamboo */
+    ADDED,
+
+    /** An existing setting was changed */
+    MODIFIED,
+
+    /** An existing setting was removed */
+    REMOVED,
+
+    /** The job already matched, nothing was written */
+    UNCHANGED,
+
+    /** The change was not written because no agent could build the job afterwards */
+    UNBUILDABLE,
+
+    /** The change could not be applied */
+    FAILED
+}
@@ -0,0 +1,25 @@
+/**
+ * PlanPage.java
+ *
+ * One page of the /rest/api/latest/plan response.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.util.ArrayList;
+
+/**
+ * PlanPage class definition.  Holds the paging fields reported by Bamboo and the plan keys that passed filtering.
+ * 'count' is the number of plans on the page before filtering and drives the paging arithmetic.
+ *
+ */
+class PlanPage {
+
+    int size;
+    int startIndex;
+    int maxResult;
+    int count;
+    ArrayList<String> keys = new ArrayList<String>();
+}
@@ -0,0 +1,111 @@
+/**
+ * PlanPager.java
+ *
+ * Iterates over every plan key in Bamboo by following the start-index/max-result/size paging fields of the
+ * plan REST API.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * PlanPager class definition.  The first page is fetched synchronously to learn the total number of plans ("size").
+ * All remaining pages are then requested in parallel on a bounded pool, and keys are handed out strictly in page
+ * order.  A page that cannot be fetched fails the iteration rather than silently dropping its plans.
+ *
+ */
+public class PlanPager implements Iterator<String> {
+
+    private final JobRequirements requests;
+    private final int pageSize;
+    private final ExecutorService executor;
+    private final ArrayList<Future<PlanPage>> pages = new ArrayList<Future<PlanPage>>();
+    private int nextPage = 0;
+    private Iterator<String> current;
+
+    /**
+     * @param requests used to perform the page GETs
+     * @param pageSize number of plans requested per page
+     * @param concurrency maximum number of page GETs in flight
+     */
+    public PlanPager(JobRequirements requests, int pageSize, int concurrency) {
+        this.requests = requests;
+        this.pageSize = Math.max(1, pageSize);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (current == null) {
+            start();
+        }
+        while (!current.hasNext()) {
+            if (nextPage >= pages.size()) {
+                return false;
+            }
+            current = take(pages.get(nextPage++)).keys.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * close()
+     *
+     * Stops any page GETs still in flight.  Always call once iteration is finished or abandoned.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * start()
+     *
+     * Fetches the first page and queues the GETs for every remaining page based on the reported total.
+     */
+    private void start() {
+        PlanPage first;
+        try {
+            first = requests.fetchPlans(0, pageSize);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to fetch plans at start-index 0", e);
+        }
+        int total = first.size;
+        int received = first.count;
+
+        // Page on what the server actually returned, it may cap max-results below the requested pageSize
+        int step = received > 0 ? received : pageSize;
+        for (int startIndex = received; received > 0 && startIndex < total; startIndex += step) {
+            final int index = startIndex;
+            pages.add(executor.submit(() -> requests.fetchPlans(index, step)));
+        }
+        current = first.keys.iterator();
+    }
+
+    private PlanPage take(Future<PlanPage> page) {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching plans", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to fetch plans at page " + nextPage, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * RawChange.java
+ *
+ * Sends an arbitrary REST request for every selected job, for job settings without a dedicated JobChange.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+
+import com.google.gson.JsonObject;
+
+/**
+ * RawChange class definition.  {jobKey} and {planKey} in the path are replaced for each job.  The current state is
+ * not read first, so the request is always sent (outside a dry run) and reported as MODIFIED; the endpoint itself
+ * must be idempotent.
+ *
+ */
+public class RawChange implements JobChange {
+
+    private final String method;
+    private final String path;
+    private final JsonObject body;
+
+    /**
+     * @param method HTTP method, ie PUT
+     * @param path REST path template, ie /rest/api/latest/config/job/{jobKey}/...
+     * @param body JSON body, null for none
+     */
+    public RawChange(String method, String path, JsonObject body) {
+        this.method = method.toUpperCase();
+        this.path = path;
+        this.body = body;
+    }
+
+    @Override
+    public Outcome apply(BambooClient client, String jobKey, boolean dryRun) throws IOException {
+        if (dryRun) {
+            return Outcome.MODIFIED;
+        }
+        String resolved = path.replace("{jobKey}", jobKey).replace("{planKey}", VariableChange.planKey(jobKey));
+        if (body == null && method.equals("DELETE")) {
+            client.delete(resolved).close();
+        } else {
+            client.send(method, resolved, body == null ? new JsonObject() : body).close();
+        }
+        return Outcome.MODIFIED;
+    }
+
+    @Override
+    public String describe() {
+        return method + " " + path;
+    }
+}
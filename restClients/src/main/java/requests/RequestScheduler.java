@@ -0,0 +1,272 @@
+/**
+ * RequestScheduler.java
+ *
+ * Paces, retries and, when Bamboo is struggling, pauses the REST calls made through BambooClient.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RequestScheduler class definition.  Every call passes through three mechanisms:
+ *
+ * Token bucket - calls are started at no more than 'rate' per second, with bursts of up to 'burst' calls.
+ *
+ * Retry - a 429, 502, 503 or 504 answer, or an I/O failure before any answer, is retried up to 'maxAttempts' times
+ * with exponential backoff and full jitter.  A Retry-After header from Bamboo takes precedence over the computed
+ * delay.  Other error statuses (ie 400, 404) are not retried.  A call that is not idempotent (any write) is only
+ * retried when Bamboo cannot have acted on it: the connection could not be made, or the answer was 429 or 503.  A
+ * read timeout, reset or 502/504 after a write was sent is thrown instead, since repeating it could apply it twice.
+ *
+ * Circuit breaker - after 'failureThreshold' consecutive transient failures the circuit opens and every caller waits
+ * for 'openMillis' instead of sending.  A single probe call is then let through; success closes the circuit, failure
+ * opens it again.  Callers wait rather than fail, so no update is dropped while Bamboo recovers.  Each opening is
+ * counted in the Metrics set with metrics().
+ *
+ */
+public class RequestScheduler {
+
+    /**
+     * Call interface definition.  One attempt of a REST call.
+     */
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    private int maxAttempts = 5;
+    private long baseDelay = 500;
+    private long maxDelay = 30000;
+
+    private int failureThreshold = 10;
+    private long openMillis = 30000;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probing;
+    private Metrics metrics;
+
+    /**
+     * @param rate calls started per second
+     * @param burst calls that may start at once after an idle period
+     */
+    public RequestScheduler(double rate, int burst) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * unlimited()
+     *
+     * @return scheduler that sends every call at once, a single time, without a circuit breaker
+     */
+    public static RequestScheduler unlimited() {
+        return new RequestScheduler(Double.MAX_VALUE, Integer.MAX_VALUE).retries(1, 0, 0).circuitBreaker(Integer.MAX_VALUE, 0);
+    }
+
+    public RequestScheduler retries(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    public RequestScheduler circuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        return this;
+    }
+
+    /**
+     * metrics()
+     *
+     * @param metrics counts the circuit openings, null for none
+     * @return this
+     */
+    public RequestScheduler metrics(Metrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * execute()
+     *
+     * Runs an idempotent call under the rate limit, retry policy and circuit breaker.
+     *
+     * @param call one attempt of the REST call
+     * @return result of the first successful attempt
+     * @throws IOException from the last attempt once retries are exhausted, or any non transient failure
+     */
+    public <T> T execute(Call<T> call) throws IOException {
+        return execute(call, true);
+    }
+
+    /**
+     * execute()
+     *
+     * Runs the call under the rate limit, retry policy and circuit breaker.
+     *
+     * @param call one attempt of the REST call
+     * @param idempotent true if repeating the call after Bamboo received it is harmless, ie a GET
+     * @return result of the first successful attempt
+     * @throws IOException from the last attempt once retries are exhausted, or any failure that may not be retried
+     */
+    public <T> T execute(Call<T> call, boolean idempotent) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            boolean probe = admit();
+            acquireToken();
+            try {
+                T result = call.call();
+                onSuccess(probe);
+                return result;
+            } catch (IOException e) {
+                if (!isTransient(e, true)) {
+                    onSuccess(probe);  // Bamboo answered, it is healthy
+                    throw e;
+                }
+                onFailure(probe);
+                if (attempt >= maxAttempts || !isTransient(e, idempotent)) {
+                    throw e;
+                }
+                sleep(delay(attempt, e));
+            }
+        }
+    }
+
+    /**
+     * isTransient()
+     *
+     * @param e failure of one attempt
+     * @param idempotent true if the call may be repeated after Bamboo received it
+     * @return true if the attempt may succeed, and is safe, when repeated
+     */
+    static boolean isTransient(IOException e, boolean idempotent) {
+        if (e instanceof BambooException) {
+            int status = ((BambooException) e).getStatus();
+            // 429 and 503 refuse the request; a 502 or 504 may come after Bamboo applied it
+            return status == 429 || status == 503 || (idempotent && (status == 502 || status == 504));
+        }
+        if (!idempotent) {
+            // Nothing was sent
+            return e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException;
+        }
+        // Connection failures and timeouts are transient, an interrupted caller is not
+        return e instanceof SocketTimeoutException || !(e instanceof InterruptedIOException);
+    }
+
+    /**
+     * delay()
+     *
+     * @param attempt number of the failed attempt, from 1
+     * @param e its failure
+     * @return milliseconds to wait before the next attempt
+     */
+    long delay(int attempt, IOException e) {
+        if (e instanceof BambooException && ((BambooException) e).getRetryAfter() >= 0) {
+            return Math.min(maxDelay, ((BambooException) e).getRetryAfter() * 1000L);
+        }
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * acquireToken()
+     *
+     * Blocks until the token bucket allows another call to start.
+     */
+    private void acquireToken() throws IOException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilled) * rate / 1e9);
+            refilled = now;
+            tokens -= 1;
+            // A negative balance is the caller's place in line
+            wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / rate);
+        }
+        sleep(wait);
+    }
+
+    /**
+     * admit()
+     *
+     * Blocks while the circuit is open, or half open with a probe in flight.
+     *
+     * @return true if the caller is the half open probe
+     */
+    private synchronized boolean admit() throws IOException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (state == State.CLOSED) {
+                return false;
+            }
+            if (state == State.OPEN && now >= openUntil) {
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN && !probing) {
+                probing = true;
+                return true;
+            }
+            try {
+                wait(state == State.OPEN ? Math.max(1, openUntil - now) : 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while the circuit is open");
+            }
+        }
+    }
+
+    private synchronized void onSuccess(boolean probe) {
+        consecutiveFailures = 0;
+        if (probe || state != State.CLOSED) {
+            probing = false;
+            state = State.CLOSED;
+            notifyAll();
+        }
+    }
+
+    private synchronized void onFailure(boolean probe) {
+        consecutiveFailures++;
+        if (probe || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN && metrics != null) {
+                metrics.circuitOpened();
+            }
+            probing = false;
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openMillis;
+            notifyAll();
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
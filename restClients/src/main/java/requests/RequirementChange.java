@@ -0,0 +1,185 @@
+/**
+ * RequirementChange.java
+ *
+ * Adds, removes or modifies one requirement of a job.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * RequirementChange class definition.  Uses the private job configuration API:
+ *
+ * <pre>
+ * GET    /rest/api/latest/config/job/{jobKey}/requirement        current requirements
+ * POST   /rest/api/latest/config/job/{jobKey}/requirement        add
+ * PUT    /rest/api/latest/config/job/{jobKey}/requirement/{id}   modify
+ * DELETE /rest/api/latest/config/job/{jobKey}/requirement/{id}   remove
+ * </pre>
+ *
+ * Removing or modifying a requirement the job does not have is UNCHANGED.  With an AgentIndex set, an add or modify
+ * that would leave no agent able to satisfy all of the job's requirements is not written and reports UNBUILDABLE.
+ *
+ */
+public class RequirementChange implements JobChange {
+
+    public enum Action { ADD, REMOVE, MODIFY }
+
+    private final Action action;
+    private final String key;
+    private final String matchType;
+    private final String matchValue;
+    private AgentIndex agents;
+
+    /**
+     * @param action
+     * @param key requirement (capability) key, ie package_release
+     * @param matchType EXISTS, EQUALS or MATCHES; ignored for REMOVE
+     * @param matchValue value for EQUALS and MATCHES, may be null
+     */
+    public RequirementChange(Action action, String key, String matchType, String matchValue) {
+        this.action = action;
+        this.key = key;
+        this.matchType = matchType == null ? "EXISTS" : matchType;
+        this.matchValue = matchValue == null ? "" : matchValue;
+    }
+
+    /**
+     * agents()
+     *
+     * Sets the AgentIndex adds and modifies are checked against before they are written.
+     *
+     * @param agents
+     * @return this
+     */
+    public RequirementChange agents(AgentIndex agents) {
+        this.agents = agents;
+        return this;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getMatchType() {
+        return matchType;
+    }
+
+    public String getMatchValue() {
+        return matchValue;
+    }
+
+    @Override
+    public Outcome apply(BambooClient client, String jobKey, boolean dryRun) throws IOException {
+        String path = "/rest/api/latest/config/job/" + jobKey + "/requirement";
+        JsonArray requirements = list(client, path);
+        JsonObject current = find(requirements);
+
+        if (action == Action.ADD) {
+            if (current != null) {
+                return Outcome.UNCHANGED;
+            }
+            if (!buildable(jobKey, requirements)) {
+                return Outcome.UNBUILDABLE;
+            }
+            if (!dryRun) {
+                client.post(path, body()).close();
+            }
+            return Outcome.ADDED;
+        }
+        if (current == null) {
+            return Outcome.UNCHANGED;
+        }
+        String id = current.get("id").getAsString();
+        if (action == Action.REMOVE) {
+            if (!dryRun) {
+                client.delete(path + "/" + id).close();
+            }
+            return Outcome.REMOVED;
+        }
+        if (matchType.equals(string(current, "matchType")) && matchValue.equals(string(current, "matchValue"))) {
+            return Outcome.UNCHANGED;
+        }
+        if (!buildable(jobKey, requirements)) {
+            return Outcome.UNBUILDABLE;
+        }
+        if (!dryRun) {
+            JsonObject body = body();
+            body.addProperty("id", id);
+            client.send("PUT", path + "/" + id, body).close();
+        }
+        return Outcome.MODIFIED;
+    }
+
+    @Override
+    public String describe() {
+        return "requirement " + action.name().toLowerCase() + " " + key
+                + (action == Action.REMOVE ? "" : " " + matchType + (matchValue.isEmpty() ? "" : " " + matchValue));
+    }
+
+    private JsonObject body() {
+        JsonObject body = new JsonObject();
+        body.addProperty("key", key);
+        body.addProperty("matchType", matchType);
+        if (!matchValue.isEmpty()) {
+            body.addProperty("matchValue", matchValue);
+        }
+        return body;
+    }
+
+    /**
+     * buildable()
+     *
+     * @param jobKey
+     * @param requirements current requirements of the job
+     * @return true if there is no AgentIndex, or some agent satisfies the requirements with this change applied
+     */
+    private boolean buildable(String jobKey, JsonArray requirements) {
+        if (agents == null) {
+            return true;
+        }
+        List<String[]> after = new ArrayList<String[]>();
+        for (JsonElement requirement : requirements) {
+            JsonObject other = requirement.getAsJsonObject();
+            if (!key.equals(string(other, "key"))) {
+                after.add(new String[] { string(other, "key"), string(other, "matchType"), string(other, "matchValue") });
+            }
+        }
+        after.add(new String[] { key, matchType, matchValue });
+        return agents.check(jobKey, after);
+    }
+
+    private static JsonArray list(BambooClient client, String path) throws IOException {
+        try (BambooClient.Response response = client.get(path)) {
+            return new JsonParser().parse(response.reader()).getAsJsonArray();
+        }
+    }
+
+    private JsonObject find(JsonArray requirements) {
+        for (JsonElement requirement : requirements) {
+            if (key.equals(string(requirement.getAsJsonObject(), "key"))) {
+                return requirement.getAsJsonObject();
+            }
+        }
+        return null;
+    }
+
+    private static String string(JsonObject object, String field) {
+        JsonElement value = object.get(field);
+        return value == null || value.isJsonNull() ? "" : value.getAsString();
+    }
+}
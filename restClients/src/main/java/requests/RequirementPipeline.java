@@ -0,0 +1,413 @@
+/**
+ * RequirementPipeline.java
+ *
+ * Runs plan discovery, job discovery and the requirement update as three concurrent stages connected by bounded
+ * queues, so a job is updated as soon as its plan has been read rather than after every plan has been read.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+
+/**
+ * RequirementPipeline class definition.  Stage one pages through the plans (PlanPager) and queues each plan key.
+ * Stage two is a pool of workers streaming the jobs of each plan and queueing the key and name of every matching job.
+ * Stage three is a pool of workers applying a JobAction to each job and counting its Outcome; by default the action
+ * adds the requirement where it is missing (see MutationEngine for arbitrary changes and InventoryExport for a read
+ * only export).  The queues are bounded, so a slow
+ * stage holds back the stage in front of it instead of letting keys pile up in memory.
+ *
+ * With a Journal set, plans and jobs an interrupted earlier run completed are skipped, and every job done and every
+ * plan whose jobs are all done is recorded.  A job is done when it ended ADDED, MODIFIED, REMOVED or UNCHANGED, so
+ * UNBUILDABLE and FAILED jobs are tried again on resume.  A plan is only recorded once its job listing was read
+ * completely and all of its jobs are done.
+ *
+ * Each stage records its span as a Metrics phase (plan discovery, job discovery, requirement update).  The stages
+ * overlap, so the phases add up to more than the total run time.
+ *
+ */
+public class RequirementPipeline {
+
+    /**
+     * JobAction interface definition.  What stage three does with each job key.
+     */
+    public interface JobAction {
+        Outcome apply(String jobKey) throws Exception;
+
+        /**
+         * @param jobKey
+         * @param jobName name of the job as listed by Bamboo
+         */
+        default Outcome apply(String jobKey, String jobName) throws Exception {
+            return apply(jobKey);
+        }
+    }
+
+    /**
+     * JobLister interface definition.  How stage two lists the jobs of a plan.
+     */
+    public interface JobLister {
+        /**
+         * @param planKey
+         * @param job receives (job key, job name) for each job to queue
+         */
+        void list(String planKey, BiConsumer<String, String> job) throws Exception;
+    }
+
+    // Mark the end of a queue, compared by identity
+    private static final String END = new String("<end>");
+    private static final String[] END_JOB = new String[0];
+
+    static final String PLAN_PHASE = "plan discovery";
+    static final String JOB_PHASE = "job discovery";
+    static final String UPDATE_PHASE = "requirement update";
+
+    private final JobRequirements requests;
+    private final JobAction action;
+    private JobLister lister;
+    private final Metrics metrics;
+    private final int jobWorkers;
+    private final int updateWorkers;
+    private final BlockingQueue<String> planQueue;
+    private final BlockingQueue<String[]> jobQueue;
+    private final AtomicInteger runningJobWorkers = new AtomicInteger();
+    private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+
+    private final AtomicInteger plans = new AtomicInteger();
+    private final AtomicInteger jobs = new AtomicInteger();
+    private final Set<String> planKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean planListComplete;
+    private final AtomicIntegerArray outcomes = new AtomicIntegerArray(Outcome.values().length);
+    private final ConcurrentLinkedQueue<String> unbuildable = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger resumed = new AtomicInteger();
+    private final Map<String, AtomicInteger> openPlans = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Map<String, String> jobPlans = new ConcurrentHashMap<String, String>();
+    private Journal journal;
+
+    /**
+     * @param requests used to perform the REST calls
+     * @param concurrency number of workers in each of the job discovery and requirement update stages
+     * @param queueSize capacity of each queue between stages
+     */
+    public RequirementPipeline(JobRequirements requests, int concurrency, int queueSize) {
+        this(requests, concurrency, queueSize,
+                jobKey -> requests.getConfig().isDiff() ? requests.ensureRequirement(jobKey) : requests.addRequirement(jobKey));
+    }
+
+    /**
+     * @param requests used to perform the plan and job discovery
+     * @param concurrency number of workers in each of the job discovery and job action stages
+     * @param queueSize capacity of each queue between stages
+     * @param action applied to every discovered job in stage three
+     */
+    public RequirementPipeline(JobRequirements requests, int concurrency, int queueSize, JobAction action) {
+        this.requests = requests;
+        this.action = action;
+        this.lister = requests::fetchJobs;
+        this.metrics = requests.getMetrics();
+        this.jobWorkers = Math.max(1, concurrency);
+        this.updateWorkers = Math.max(1, concurrency);
+        this.planQueue = new ArrayBlockingQueue<String>(Math.max(1, queueSize));
+        this.jobQueue = new ArrayBlockingQueue<String[]>(Math.max(1, queueSize));
+    }
+
+    /**
+     * lister()
+     *
+     * Sets how stage two lists the jobs of a plan, by default JobRequirements.fetchJobs().
+     *
+     * @param lister
+     * @return this
+     */
+    public RequirementPipeline lister(JobLister lister) {
+        this.lister = lister;
+        return this;
+    }
+
+    /**
+     * journal()
+     *
+     * Sets the Journal used to skip finished work and record progress.
+     *
+     * @param journal an opened Journal, or null
+     * @return this
+     */
+    public RequirementPipeline journal(Journal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * run()
+     *
+     * Starts all stages and blocks until the last requirement update has finished.
+     *
+     * @return ArrayList with one message per failed plan page, plan or job
+     */
+    public ArrayList<String> run() throws InterruptedException {
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+
+        threads.add(new Thread(this::discoverPlans, "plans"));
+        runningJobWorkers.set(jobWorkers);
+        for (int i=0; i<jobWorkers; i++) {
+            threads.add(new Thread(this::discoverJobs, "jobs-" + i));
+        }
+        for (int i=0; i<updateWorkers; i++) {
+            threads.add(new Thread(this::updateJobs, "update-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+
+        return new ArrayList<String>(errors);
+    }
+
+    public int getPlanCount() {
+        return plans.get();
+    }
+
+    public int getJobCount() {
+        return jobs.get();
+    }
+
+    /**
+     * getResumedCount()
+     *
+     * @return number of plans and jobs skipped because the journal shows an earlier run finished them
+     */
+    public int getResumedCount() {
+        return resumed.get();
+    }
+
+    /**
+     * getPlanKeys()
+     *
+     * @return every plan key read by the plan stage
+     */
+    public Set<String> getPlanKeys() {
+        return planKeys;
+    }
+
+    /**
+     * isPlanListComplete()
+     *
+     * @return true if every page of plans was read
+     */
+    public boolean isPlanListComplete() {
+        return planListComplete;
+    }
+
+    /**
+     * getCount()
+     *
+     * @param outcome
+     * @return number of jobs that ended with the given outcome
+     */
+    public int getCount(Outcome outcome) {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * getUnbuildable()
+     *
+     * @return sorted keys of the jobs that ended UNBUILDABLE
+     */
+    public ArrayList<String> getUnbuildable() {
+        ArrayList<String> jobKeys = new ArrayList<String>(unbuildable);
+        Collections.sort(jobKeys);
+        return jobKeys;
+    }
+
+    /**
+     * discoverPlans()
+     *
+     * Stage one.  Queues every plan key, then one END marker per job discovery worker.
+     */
+    private void discoverPlans() {
+        metrics.phaseStart(PLAN_PHASE);
+        PlanPager pager = new PlanPager(requests, requests.getConfig().getPageSize(), requests.getConfig().getConcurrency());
+        try {
+            while (pager.hasNext()) {
+                String planKey = pager.next();
+                planKeys.add(planKey);
+                planQueue.put(planKey);
+                plans.incrementAndGet();
+            }
+            planListComplete = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add("plans: interrupted after " + plans.get() + " plans");
+        } catch (Exception e) {
+            errors.add("plans: " + e);
+        } finally {
+            pager.close();
+            metrics.phaseEnd(PLAN_PHASE);
+            for (int i=0; i<jobWorkers; i++) {
+                if (!putEnd(planQueue, END, "plans")) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * discoverJobs()
+     *
+     * Stage two.  The last worker to finish queues one END marker per update worker.
+     */
+    private void discoverJobs() {
+        metrics.phaseStart(JOB_PHASE);
+        try {
+            String planKey;
+            while ((planKey = planQueue.take()) != END) {
+                if (journal != null && journal.isPlanDone(planKey)) {
+                    resumed.incrementAndGet();
+                    continue;
+                }
+                String plan = planKey;
+                if (journal != null) {
+                    openPlans.put(plan, new AtomicInteger(1));  // released when the listing is complete
+                }
+                try {
+                    lister.list(plan, (jobKey, jobName) -> {
+                        jobs.incrementAndGet();
+                        if (journal != null) {
+                            if (journal.isJobDone(jobKey)) {
+                                resumed.incrementAndGet();
+                                return;
+                            }
+                            openPlans.get(plan).incrementAndGet();
+                            jobPlans.put(jobKey, plan);
+                        }
+                        try {
+                            jobQueue.put(new String[] { jobKey, jobName });
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("interrupted before queueing " + jobKey, e);
+                        }
+                    });
+                    release(plan);
+                } catch (Exception e) {
+                    errors.add(planKey + ": " + e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(Thread.currentThread().getName() + ": interrupted");
+        } finally {
+            metrics.phaseEnd(JOB_PHASE);
+            if (runningJobWorkers.decrementAndGet() == 0) {
+                for (int i=0; i<updateWorkers; i++) {
+                    if (!putEnd(jobQueue, END_JOB, "jobs")) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * updateJobs()
+     *
+     * Stage three.
+     */
+    private void updateJobs() {
+        metrics.phaseStart(UPDATE_PHASE);
+        try {
+            String[] job;
+            while ((job = jobQueue.take()) != END_JOB) {
+                String jobKey = job[0];
+                Outcome outcome;
+                try {
+                    outcome = action.apply(jobKey, job[1]);
+                } catch (Exception e) {
+                    errors.add(jobKey + ": " + e);
+                    outcome = Outcome.FAILED;
+                }
+                outcomes.incrementAndGet(outcome.ordinal());
+                if (outcome == Outcome.UNBUILDABLE) {
+                    unbuildable.add(jobKey);
+                }
+                if (journal != null && isFinal(outcome)) {
+                    try {
+                        journal.jobDone(jobKey, outcome);
+                        release(jobPlans.remove(jobKey));
+                    } catch (Exception e) {
+                        errors.add(jobKey + ": journal: " + e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(Thread.currentThread().getName() + ": interrupted");
+        } finally {
+            metrics.phaseEnd(UPDATE_PHASE);
+        }
+    }
+
+    /**
+     * release()
+     *
+     * Marks one piece of a plan's work (its job listing or one of its jobs) done, journaling the plan after the last.
+     */
+    private void release(String planKey) throws Exception {
+        AtomicInteger open = planKey == null ? null : openPlans.get(planKey);
+        if (open != null && open.decrementAndGet() == 0) {
+            openPlans.remove(planKey);
+            journal.planDone(planKey);
+        }
+    }
+
+    /**
+     * isFinal()
+     *
+     * @param outcome
+     * @return true if the job now is as the change wants it; UNBUILDABLE and FAILED jobs are not journaled so a
+     *         resumed run tries them again
+     */
+    private static boolean isFinal(Outcome outcome) {
+        return outcome == Outcome.ADDED || outcome == Outcome.UNCHANGED || outcome == Outcome.MODIFIED
+                || outcome == Outcome.REMOVED;
+    }
+
+    /**
+     * putEnd()
+     *
+     * Queues an END marker for the next stage.  If interrupted first the marker is lost, so the error keeps the run
+     * from being reported clean.
+     *
+     * @return true if the marker was queued
+     */
+    private <T> boolean putEnd(BlockingQueue<T> queue, T end, String stage) {
+        try {
+            queue.put(end);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(stage + ": interrupted before queueing the end of the stage");
+            return false;
+        }
+    }
+}
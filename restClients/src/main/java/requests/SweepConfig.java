@@ -0,0 +1,465 @@
+/**
+ * SweepConfig.java
+ *
+ * Everything one sweep needs to know about its server, its files and its share of the work.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.google.gson.JsonObject;
+
+/**
+ * SweepConfig class definition.  One instance per sweep replaces the former static members of JobRequirements, so
+ * several sweeps with different settings can run in the same JVM.  The setters return this and are chained; parse()
+ * builds a config from command line options (see USAGE).
+ *
+ * With --shard i/n a sweep only takes the plans whose key hashes (CRC32) to slice i of n.  The hash depends on nothing
+ * but the plan key, so n processes started with shards 1/n to n/n on any number of hosts cover every plan exactly
+ * once.  The cache, journal, export and metrics files of a sharded sweep get an .IofN suffix (see shardFile()) so shards
+ * sharing a working directory do not overwrite each other.
+ *
+ */
+public class SweepConfig {
+
+    public static final String DEFAULT_URL = "https://bamboo.trustvesta.com/bamboo";
+//    public static final String DEFAULT_URL = "http://tddvbamboo-a.ad.trustvesta.com:8085/bamboo";  // Staging Bamboo
+
+    public static final String DEFAULT_CREDENTIALS = ".credentials";
+
+    public static final String USAGE = "options:\n"
+            + "  --server URL             Bamboo base URL (" + DEFAULT_URL + ")\n"
+            + "  --credentials FILE       file containing username=XXX and password=YYY (" + DEFAULT_CREDENTIALS + ")\n"
+            + "  --filters FILE           JobFilter rules (" + JobFilter.DEFAULT_FILE + ")\n"
+            + "  --filter RULE            extra JobFilter rule, ie job.include=*production*; may be repeated\n"
+            + "  --changes FILE           apply a ChangeSet instead of adding the package_release requirement\n"
+            + "  --export FILE            write an Inventory snapshot of the jobs instead of changing them (.gz to compress);\n"
+            + "                           every job unless --filters or --filter is given\n"
+            + "  --concurrency N          workers per stage (8)\n"
+            + "  --queue-size N           capacity of the queues between stages (256)\n"
+            + "  --rate N                 requests per second, may be a fraction, ie 0.5 (20)\n"
+            + "  --page-size N            plans per page (500)\n"
+            + "  --shard I/N              only sweep slice I (1..N) of the plans\n"
+            + "  --dry-run                read everything, write nothing\n"
+            + "  --no-diff                add the requirement without reading the existing ones\n"
+            + "  --no-agents              do not check requirement writes against the agent capabilities\n"
+            + "  --cache FILE             job cache (" + JobCache.DEFAULT_FILE + "); --no-cache disables it\n"
+            + "  --cache-max-age SECONDS  reuse cached jobs without validators this long (0, always revalidate)\n"
+            + "  --journal FILE           checkpoint journal (" + Journal.DEFAULT_FILE + "); --no-journal disables it\n"
+            + "  --metrics-json FILE      write the metrics as JSON after the run\n"
+            + "  --metrics-prom FILE      write the metrics in the Prometheus text format after the run\n"
+            + "  --help                   show this message\n";
+
+    private String baseUrl = DEFAULT_URL;
+    private String credentialsFile = DEFAULT_CREDENTIALS;
+    private String filterFile = null;
+    private final List<String> filterRules = new ArrayList<String>();
+    private String changeSetFile = null;
+    private String exportFile = null;
+    private int concurrency = 8;
+    private int queueSize = 256;
+    private double requestsPerSecond = 20;
+    private int pageSize = 500;
+    private int shardIndex = 1;
+    private int shardCount = 1;
+    private boolean dryRun = false;
+    private boolean diff = true;
+    private boolean checkAgents = true;
+    private String cacheFile = JobCache.DEFAULT_FILE;             // null disables the cache
+    private long cacheMaxAge = 0;
+    private String journalFile = Journal.DEFAULT_FILE;            // null disables resuming
+    private String metricsJson = null;                            // ie "metrics.json"
+    private String metricsPrometheus = null;                      // ie "bamboo_sweep.prom" for the node_exporter textfile collector
+    private boolean help = false;
+
+    /**
+     * parse()
+     *
+     * @param args command line options, see USAGE
+     * @return SweepConfig with the defaults overridden by the options
+     * @throws IllegalArgumentException for an unknown option or a bad value
+     */
+    public static SweepConfig parse(String[] args) {
+        SweepConfig config = new SweepConfig();
+        for (int i=0; i<args.length; i++) {
+            String option = args[i];
+            switch (option) {
+            case "--server":         config.baseUrl(value(args, ++i, option)); break;
+            case "--credentials":    config.credentialsFile(value(args, ++i, option)); break;
+            case "--filters":        config.filterFile(value(args, ++i, option)); break;
+            case "--filter":         config.filter(value(args, ++i, option)); break;
+            case "--changes":        config.changeSetFile(value(args, ++i, option)); break;
+            case "--export":         config.exportFile(value(args, ++i, option)); break;
+            case "--concurrency":    config.concurrency(number(args, ++i, option)); break;
+            case "--queue-size":     config.queueSize(number(args, ++i, option)); break;
+            case "--rate":           config.requestsPerSecond(decimal(args, ++i, option)); break;
+            case "--page-size":      config.pageSize(number(args, ++i, option)); break;
+            case "--shard":          config.shard(value(args, ++i, option)); break;
+            case "--dry-run":        config.dryRun(true); break;
+            case "--no-diff":        config.diff(false); break;
+            case "--no-agents":      config.checkAgents(false); break;
+            case "--cache":          config.cacheFile(value(args, ++i, option)); break;
+            case "--no-cache":       config.cacheFile(null); break;
+            case "--cache-max-age":  config.cacheMaxAge(number(args, ++i, option) * 1000L); break;
+            case "--journal":        config.journalFile(value(args, ++i, option)); break;
+            case "--no-journal":     config.journalFile(null); break;
+            case "--metrics-json":   config.metricsJson(value(args, ++i, option)); break;
+            case "--metrics-prom":   config.metricsPrometheus(value(args, ++i, option)); break;
+            case "--help":           config.help = true; break;
+            default:
+                throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+        return config;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static int number(String[] args, int i, String option) {
+        try {
+            return Integer.parseInt(value(args, i, option));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a number, not " + args[i]);
+        }
+    }
+
+    private static double decimal(String[] args, int i, String option) {
+        try {
+            return Double.parseDouble(value(args, i, option));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a number, not " + args[i]);
+        }
+    }
+
+    /**
+     * shardOf()
+     *
+     * @param planKey
+     * @param shardCount number of shards
+     * @return shard (1..shardCount) the plan belongs to
+     */
+    public static int shardOf(String planKey, int shardCount) {
+        CRC32 crc = new CRC32();
+        crc.update(planKey.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shardCount) + 1;
+    }
+
+    /**
+     * inShard()
+     *
+     * @param planKey
+     * @return true if the plan belongs to the shard of this sweep
+     */
+    public boolean inShard(String planKey) {
+        return shardCount == 1 || shardOf(planKey, shardCount) == shardIndex;
+    }
+
+    /**
+     * shard()
+     *
+     * @param shard I/N, ie 2/4 for the second of four slices
+     * @return this
+     */
+    public SweepConfig shard(String shard) {
+        String[] parts = shard.split("/");
+        try {
+            if (parts.length == 2) {
+                return shard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("--shard needs I/N, not " + shard);
+    }
+
+    /**
+     * shard()
+     *
+     * @param index slice of this sweep, 1..count
+     * @param count number of slices
+     * @return this
+     */
+    public SweepConfig shard(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("shard " + index + "/" + count + " is out of range");
+        }
+        this.shardIndex = index;
+        this.shardCount = count;
+        return this;
+    }
+
+    /**
+     * loadCredentials()
+     *
+     * Reads username and password from the credentials file.
+     *
+     * @return JSON object containing username and password.
+     */
+    public JsonObject loadCredentials() {
+        JsonObject credentials = new JsonObject();
+        String line = null;
+
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(credentialsFile))) {
+            while((line = bufferedReader.readLine()) != null) {
+                String parts[] = line.split("=", 2);
+                if (parts.length == 2) {
+                    credentials.addProperty(parts[0].trim(), parts[1].trim());
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Exception in loadCredentials(): " + e);
+        }
+
+        return credentials;
+    }
+
+    /**
+     * loadFilter()
+     *
+     * @return JobFilter of the filter file (or JobFilter.defaults()) plus the --filter rules
+     */
+    public JobFilter loadFilter() throws IOException {
+        return addRules(JobFilter.load(Paths.get(filterFile == null ? JobFilter.DEFAULT_FILE : filterFile)));
+    }
+
+    /**
+     * loadExportFilter()
+     *
+     * @return JobFilter of the --filters file plus the --filter rules; with neither it has no rules and keeps every job
+     */
+    public JobFilter loadExportFilter() throws IOException {
+        return addRules(filterFile == null ? new JobFilter() : JobFilter.load(Paths.get(filterFile)));
+    }
+
+    private JobFilter addRules(JobFilter filter) {
+        for (String rule : filterRules) {
+            filter.add(rule);
+        }
+        return filter;
+    }
+
+    /**
+     * describeShard()
+     *
+     * @return ie " shard 2/4", or an empty string for an unsharded sweep
+     */
+    public String describeShard() {
+        return shardCount == 1 ? "" : " shard " + shardIndex + "/" + shardCount;
+    }
+
+    /**
+     * shardFile()
+     *
+     * @param file
+     * @return file with the shard suffix in front of its extension, ie metrics.2of4.json or .jobcache.2of4, or null if
+     *         file is null
+     */
+    Path shardFile(String file) {
+        if (file == null) {
+            return null;
+        }
+        if (shardCount == 1) {
+            return Paths.get(file);
+        }
+        String suffix = "." + shardIndex + "of" + shardCount;
+        int dot = file.lastIndexOf('.');
+        int name = Math.max(file.lastIndexOf('/'), file.lastIndexOf('\\')) + 1;
+        return Paths.get(dot > name ? file.substring(0, dot) + suffix + file.substring(dot) : file + suffix);
+    }
+
+    public SweepConfig baseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+        return this;
+    }
+
+    public SweepConfig credentialsFile(String credentialsFile) {
+        this.credentialsFile = credentialsFile;
+        return this;
+    }
+
+    public SweepConfig filterFile(String filterFile) {
+        this.filterFile = filterFile;
+        return this;
+    }
+
+    public SweepConfig filter(String rule) {
+        filterRules.add(rule);
+        return this;
+    }
+
+    public SweepConfig changeSetFile(String changeSetFile) {
+        this.changeSetFile = changeSetFile;
+        return this;
+    }
+
+    public SweepConfig exportFile(String exportFile) {
+        this.exportFile = exportFile;
+        return this;
+    }
+
+    public SweepConfig concurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    public SweepConfig queueSize(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+        return this;
+    }
+
+    public SweepConfig requestsPerSecond(double requestsPerSecond) {
+        if (!(requestsPerSecond > 0) || Double.isInfinite(requestsPerSecond)) {
+            throw new IllegalArgumentException("--rate must be a positive number, not " + requestsPerSecond);
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    public SweepConfig pageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+        return this;
+    }
+
+    public SweepConfig dryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    public SweepConfig diff(boolean diff) {
+        this.diff = diff;
+        return this;
+    }
+
+    public SweepConfig checkAgents(boolean checkAgents) {
+        this.checkAgents = checkAgents;
+        return this;
+    }
+
+    public SweepConfig cacheFile(String cacheFile) {
+        this.cacheFile = cacheFile;
+        return this;
+    }
+
+    public SweepConfig cacheMaxAge(long cacheMaxAge) {
+        this.cacheMaxAge = cacheMaxAge;
+        return this;
+    }
+
+    public SweepConfig journalFile(String journalFile) {
+        this.journalFile = journalFile;
+        return this;
+    }
+
+    public SweepConfig metricsJson(String metricsJson) {
+        this.metricsJson = metricsJson;
+        return this;
+    }
+
+    public SweepConfig metricsPrometheus(String metricsPrometheus) {
+        this.metricsPrometheus = metricsPrometheus;
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public String getChangeSetFile() {
+        return changeSetFile;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public boolean isDiff() {
+        return diff;
+    }
+
+    public boolean isCheckAgents() {
+        return checkAgents;
+    }
+
+    public long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public boolean isHelp() {
+        return help;
+    }
+
+    /**
+     * @return job cache file with the shard suffix, or null if the cache is disabled
+     */
+    public Path getCacheFile() {
+        return shardFile(cacheFile);
+    }
+
+    /**
+     * @return journal file with the shard suffix, or null if resuming is disabled
+     */
+    public Path getJournalFile() {
+        return shardFile(journalFile);
+    }
+
+    /**
+     * @return Inventory snapshot file with the shard suffix, or null
+     */
+    public Path getExportFile() {
+        return shardFile(exportFile);
+    }
+
+    /**
+     * @return metrics JSON file with the shard suffix, or null
+     */
+    public Path getMetricsJson() {
+        return shardFile(metricsJson);
+    }
+
+    /**
+     * @return metrics Prometheus file with the shard suffix, or null
+     */
+    public Path getMetricsPrometheus() {
+        return shardFile(metricsPrometheus);
+    }
+}
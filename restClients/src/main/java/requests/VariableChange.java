@@ -0,0 +1,151 @@
+/**
+ * VariableChange.java
+ *
+ * Adds, removes or modifies one plan variable of the plan owning a job.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * VariableChange class definition.  Bamboo has no job level variables, so the change is applied to the plan of the
+ * job (the first two segments of the job key) through the plan variables API:
+ *
+ * <pre>
+ * GET    /rest/api/latest/plan/{planKey}/variables          current variables
+ * POST   /rest/api/latest/plan/{planKey}/variables          add
+ * PUT    /rest/api/latest/plan/{planKey}/variables/{name}   modify
+ * DELETE /rest/api/latest/plan/{planKey}/variables/{name}   remove
+ * </pre>
+ *
+ * A plan is handled once per run however many of its jobs are selected.  The first job of the plan reports the
+ * outcome, the others wait for it and report UNCHANGED.  If the write fails they report the failure too, and the plan
+ * is not recorded as done, so a later job of the plan tries again.
+ *
+ */
+public class VariableChange implements JobChange {
+
+    private final RequirementChange.Action action;
+    private final String name;
+    private final String value;
+    private final Map<String, FutureTask<Outcome>> plans = new ConcurrentHashMap<String, FutureTask<Outcome>>();
+
+    /**
+     * @param action
+     * @param name variable name
+     * @param value variable value; ignored for REMOVE
+     */
+    public VariableChange(RequirementChange.Action action, String name, String value) {
+        this.action = action;
+        this.name = name;
+        this.value = value == null ? "" : value;
+    }
+
+    @Override
+    public Outcome apply(BambooClient client, String jobKey, boolean dryRun) throws IOException {
+        String planKey = planKey(jobKey);
+        FutureTask<Outcome> task = new FutureTask<Outcome>(() -> applyToPlan(client, planKey, dryRun));
+        FutureTask<Outcome> first = plans.putIfAbsent(planKey, task);
+        if (first == null) {
+            task.run();
+        }
+        FutureTask<Outcome> done = first == null ? task : first;
+        try {
+            Outcome outcome = done.get();
+            return first == null ? outcome : Outcome.UNCHANGED;
+        } catch (ExecutionException e) {
+            plans.remove(planKey, done);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + planKey);
+        }
+    }
+
+    private Outcome applyToPlan(BambooClient client, String planKey, boolean dryRun) throws IOException {
+        String path = "/rest/api/latest/plan/" + planKey + "/variables";
+        String current = find(client, path);
+
+        if (action == RequirementChange.Action.ADD) {
+            if (current != null) {
+                return Outcome.UNCHANGED;
+            }
+            if (!dryRun) {
+                client.post(path, body()).close();
+            }
+            return Outcome.ADDED;
+        }
+        if (current == null) {
+            return Outcome.UNCHANGED;
+        }
+        if (action == RequirementChange.Action.REMOVE) {
+            if (!dryRun) {
+                client.delete(path + "/" + name).close();
+            }
+            return Outcome.REMOVED;
+        }
+        if (value.equals(current)) {
+            return Outcome.UNCHANGED;
+        }
+        if (!dryRun) {
+            client.send("PUT", path + "/" + name, body()).close();
+        }
+        return Outcome.MODIFIED;
+    }
+
+    @Override
+    public String describe() {
+        return "variable " + action.name().toLowerCase() + " " + name + (action == RequirementChange.Action.REMOVE ? "" : " " + value);
+    }
+
+    /**
+     * planKey()
+     *
+     * @param jobKey ie PROJ-PLAN-JOB1
+     * @return plan key, ie PROJ-PLAN
+     */
+    static String planKey(String jobKey) {
+        int last = jobKey.lastIndexOf('-');
+        return last < 0 ? jobKey : jobKey.substring(0, last);
+    }
+
+    private JsonObject body() {
+        JsonObject body = new JsonObject();
+        body.addProperty("name", name);
+        body.addProperty("value", value);
+        return body;
+    }
+
+    private String find(BambooClient client, String path) throws IOException {
+        JsonArray variables;
+        try (BambooClient.Response response = client.get(path)) {
+            variables = new JsonParser().parse(response.reader()).getAsJsonArray();
+        }
+        for (JsonElement variable : variables) {
+            JsonObject object = variable.getAsJsonObject();
+            if (name.equals(object.get("name").getAsString())) {
+                return object.has("value") ? object.get("value").getAsString() : "";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+package requests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AgentIndexTest {
+
+    private static String[] requirement(String key, String matchType, String matchValue) {
+        return new String[] { key, matchType, matchValue };
+    }
+
+    @Test
+    public void requirementsMustBeMetBySingleAgent() {
+        AgentIndex agents = new AgentIndex()
+                .add("linux-1", "os", "linux")
+                .add("linux-1", "package_release", null)
+                .add("windows-1", "os", "windows")
+                .add("windows-1", "jdk", "1.8.0_144");
+
+        assertTrue(agents.canBuild(Collections.<String[]>emptyList()));
+        assertTrue(agents.canBuild(Arrays.asList(requirement("os", "EQUALS", "linux"), requirement("package_release", "EXISTS", null))));
+        assertFalse(agents.canBuild(Arrays.asList(requirement("os", "EQUALS", "windows"), requirement("package_release", "EXISTS", null))));
+        assertTrue(agents.canBuild(Collections.singletonList(requirement("jdk", "MATCHES", "1\\.8.*"))));
+        assertFalse(agents.canBuild(Collections.singletonList(requirement("jdk", "MATCHES", "11.*"))));
+        assertTrue(agents.explain(Collections.singletonList(requirement("docker", null, null))).contains("docker"));
+    }
+
+    @Test
+    public void agentsAreKeptApartById() {
+        AgentIndex agents = new AgentIndex()
+                .add("101", "os", "linux")
+                .add("102", "os", "windows")
+                .add("102", "jdk", "1.8.0_144");
+
+        assertEquals(2, agents.getAgentCount());
+        assertFalse(agents.canBuild(Arrays.asList(requirement("os", "EQUALS", "linux"), requirement("jdk", "EXISTS", null))));
+        assertTrue(agents.check("PRJ-A-JOB1", Collections.singletonList(requirement("os", "EQUALS", "linux"))));
+        assertNull(agents.explain("PRJ-A-JOB1"));
+        assertFalse(agents.check("PRJ-A-JOB2", Collections.singletonList(requirement("docker", "EXISTS", null))));
+        assertEquals("no agent provides docker EXISTS", agents.explain("PRJ-A-JOB2"));
+    }
+
+    @Test
+    public void loadsAgentsFromServer() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer()
+                .agent("linux-1", "os", "linux", "package_release", "true")
+                .agent("windows-1", "os", "windows")
+                .start(0)) {
+            AgentIndex agents = AgentIndex.load(new BambooClient(stub.getBaseUrl(), "user", "password"));
+
+            assertEquals(2, agents.getAgentCount());
+            assertEquals(1, agents.agents("package_release", "EXISTS", null).cardinality());
+            assertEquals(2, agents.agents("os", "MATCHES", "linux|windows").cardinality());
+        }
+    }
+
+    @Test
+    public void agentsWithoutCapabilitiesAreCounted() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer()
+                .agent("bare-1")
+                .start(0)) {
+            AgentIndex agents = AgentIndex.load(new BambooClient(stub.getBaseUrl(), "user", "password"));
+
+            assertEquals(1, agents.getAgentCount());
+            assertTrue(agents.canBuild(Collections.<String[]>emptyList()));
+            assertFalse(agents.canBuild(Collections.singletonList(requirement("os", "EXISTS", null))));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void serverWithoutAgentsFailsFast() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer().start(0)) {
+            AgentIndex.load(new BambooClient(stub.getBaseUrl(), "user", "password"));
+        }
+    }
+
+    @Test
+    public void emptyIndexStillBuildsJobsWithoutRequirements() {
+        assertTrue(new AgentIndex().canBuild(Collections.<String[]>emptyList()));
+        assertFalse(new AgentIndex().canBuild(Collections.singletonList(requirement("os", "EXISTS", null))));
+    }
+}
@@ -0,0 +1,127 @@
+package requests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InventoryTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("inventory");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Path file : Files.newDirectoryStream(dir)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void exportsEveryJob() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer().plans(30).jobsPerPlan(2).maxPageSize(20).disabled("PRJ-P3-JOB1")
+                .disabled("PRJ-P5").empty("PRJ-P9").disabled("PRJ-P9").start(0)) {
+            BambooClient client = new BambooClient(stub.getBaseUrl(), "user", "password");
+            SweepConfig config = new SweepConfig().pageSize(20).concurrency(4);
+            assertTrue(new RequirementPipeline(new JobRequirements(client, config), 4, 16).run().isEmpty());
+
+            Path file = dir.resolve("inventory.tsv.gz");
+            InventoryExport export = new InventoryExport(new JobRequirements(client, null, config.loadExportFilter(), config));
+            assertTrue(export.run(file, 4, 16).isEmpty());
+            assertEquals(59, export.getRowCount());
+
+            List<Inventory.Row> rows = new ArrayList<Inventory.Row>();
+            assertEquals(59, Inventory.read(file, rows::add));
+            int withRequirement = 0;
+            int disabled = 0;
+            int planDisabled = 0;
+            for (Inventory.Row row : rows) {
+                withRequirement += row.hasRequirement("package_release") ? 1 : 0;
+                disabled += row.isEnabled() ? 0 : 1;
+                planDisabled += row.isPlanEnabled() ? 0 : 1;
+                assertEquals("Project - " + row.getPlanKey(), row.getPlanName());
+                if (row.getJobKey().equals("PRJ-P7-JOB0")) {
+                    assertEquals("PRJ-P7", row.getPlanKey());
+                    assertEquals("Production Package 0", row.getJobName());
+                }
+                if (row.getPlanKey().equals("PRJ-P3")) {
+                    assertEquals(row.getJobKey().equals("PRJ-P3-JOB0"), row.isEnabled());
+                }
+                if (row.getPlanKey().equals("PRJ-P5")) {
+                    assertTrue(row.isEnabled());
+                    assertFalse(row.isPlanEnabled());
+                }
+                if (row.getPlanKey().equals("PRJ-P9")) {
+                    assertFalse(row.hasJob());
+                    assertFalse(row.isPlanEnabled());
+                }
+            }
+            assertEquals(29, withRequirement);
+            assertEquals(2, disabled);
+            assertEquals(3, planDisabled);
+        }
+    }
+
+    @Test
+    public void diffReportsChangedJobs() throws Exception {
+        List<String[]> tricky = Arrays.asList(new String[] { "path", "EQUALS", "C:\\tools;bin=x~y\tz" },
+                new String[] { "os", "MATCHES", "linux.*" }, new String[] { "package_release", "EXISTS", null });
+        Path older = dir.resolve("older.tsv");
+        try (Inventory.Writer writer = Inventory.create(older)) {
+            writer.write(new Inventory.Row("PRJ-A", "Project - A", true, "PRJ-A-JOB1", "Build", true, tricky));
+            writer.write(new Inventory.Row("PRJ-A", "Project - A", true, "PRJ-A-JOB2", "Test", true, Collections.<String[]>emptyList()));
+            writer.write(new Inventory.Row("PRJ-B", "Project - B", true, "PRJ-B-JOB1", "Old", true, Collections.<String[]>emptyList()));
+            writer.write(new Inventory.Row("PRJ-D", "Project - D", true, "", "", true, Collections.<String[]>emptyList()));
+            writer.write(new Inventory.Row("PRJ-E", "Project - E", true, "", "", true, Collections.<String[]>emptyList()));
+            writer.commit();
+        }
+        List<String[]> reordered = new ArrayList<String[]>(tricky);
+        Collections.reverse(reordered);
+        Path newer = dir.resolve("newer.tsv");
+        try (Inventory.Writer writer = Inventory.create(newer)) {
+            writer.write(new Inventory.Row("PRJ-C", "Project - C", true, "PRJ-C-JOB1", "New", true, Collections.<String[]>emptyList()));
+            writer.write(new Inventory.Row("PRJ-A", "Project - A", true, "PRJ-A-JOB2", "Test", false, Collections.<String[]>emptyList()));
+            writer.write(new Inventory.Row("PRJ-A", "Project - A", true, "PRJ-A-JOB1", "Build", true, reordered));
+            writer.write(new Inventory.Row("PRJ-D", "Project - D", true, "", "", true, Collections.<String[]>emptyList()));
+            writer.write(new Inventory.Row("PRJ-E", "Project - E", false, "", "", false, Collections.<String[]>emptyList()));
+            writer.commit();
+        }
+
+        List<Inventory.Row[]> changes = new ArrayList<Inventory.Row[]>();
+        assertEquals(4, Inventory.diff(older, newer, (before, after) -> changes.add(new Inventory.Row[] { before, after })));
+        assertNull(changes.get(0)[0]);
+        assertEquals("PRJ-C-JOB1", changes.get(0)[1].getJobKey());
+        assertTrue(changes.get(1)[0].isEnabled());
+        assertFalse(changes.get(1)[1].isEnabled());
+        assertTrue(changes.get(2)[0].isPlanEnabled());
+        assertFalse(changes.get(2)[1].isPlanEnabled());
+        assertEquals("PRJ-E", changes.get(2)[1].getPlanKey());
+        assertEquals("PRJ-B-JOB1", changes.get(3)[0].getJobKey());
+        assertNull(changes.get(3)[1]);
+
+        List<Inventory.Row> rows = new ArrayList<Inventory.Row>();
+        Inventory.read(older, rows::add);
+        List<String[]> requirements = rows.get(0).getRequirements();
+        assertEquals(3, requirements.size());
+        assertArrayEquals(tricky.get(1), requirements.get(0));
+        assertArrayEquals(tricky.get(2), requirements.get(1));
+        assertArrayEquals(tricky.get(0), requirements.get(2));
+    }
+}
@@ -0,0 +1,110 @@
+package requests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobCacheTest {
+
+    private Path dir;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("jobcache");
+        file = dir.resolve(JobCache.DEFAULT_FILE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Path entry : Files.newDirectoryStream(dir)) {
+            Files.delete(entry);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void revalidatesWithEtag() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer().plans(3).jobsPerPlan(2).start(0)) {
+            BambooClient client = new BambooClient(stub.getBaseUrl(), "user", "password");
+            JobCache cache = new JobCache(file, 0);
+            JobRequirements requests = new JobRequirements(client, cache, new JobFilter());
+
+            List<String> first = new ArrayList<String>();
+            requests.fetchJobs("PRJ-P1", (jobKey, jobName) -> first.add(jobKey + " " + jobName));
+            assertEquals(Arrays.asList("PRJ-P1-JOB0 Production Package 0", "PRJ-P1-JOB1 Integration Tests 1"), first);
+            assertEquals("\"PRJ-P1-2\"", cache.get("PRJ-P1").etag);
+            assertEquals(0, stub.getNotModifiedCount());
+
+            List<String> second = new ArrayList<String>();
+            requests.fetchJobs("PRJ-P1", (jobKey, jobName) -> second.add(jobKey + " " + jobName));
+            assertEquals(first, second);
+            assertEquals(1, stub.getNotModifiedCount());
+            assertEquals(2, stub.getRequestCount());
+
+            stub.jobsPerPlan(3);
+            List<String> third = new ArrayList<String>();
+            requests.fetchJobs("PRJ-P1", (jobKey, jobName) -> third.add(jobKey));
+            assertEquals(3, third.size());
+            assertEquals(1, stub.getNotModifiedCount());
+            assertEquals(3, cache.get("PRJ-P1").jobs.size());
+        }
+    }
+
+    @Test
+    public void maxAgeIsOptIn() {
+        JobCache.Entry plain = new JobCache.Entry(System.currentTimeMillis(), null, null);
+        JobCache.Entry tagged = new JobCache.Entry(System.currentTimeMillis(), "\"v1\"", null);
+
+        assertFalse(new JobCache(file, 0).isFresh(plain));
+        assertTrue(new JobCache(file, 60000).isFresh(plain));
+        assertFalse(new JobCache(file, 60000).isFresh(tagged));
+        assertFalse(new JobCache(file, 60000).isFresh(new JobCache.Entry(System.currentTimeMillis() - 120000, null, null)));
+    }
+
+    @Test
+    public void savesLoadsAndRetains() throws Exception {
+        JobCache cache = new JobCache(file, 0);
+        JobCache.Entry tagged = new JobCache.Entry(1000L, "\"v1\"", "Tue, 13 Oct 2026 10:00:00 GMT");
+        tagged.jobs.add(new String[] { "PRJ-A-JOB1", "Build\tand test" });
+        tagged.jobs.add(new String[] { "PRJ-A-JOB2", "Package" });
+        cache.put("PRJ-A", tagged);
+        cache.put("PRJ-B", new JobCache.Entry(2000L, null, null));
+        cache.put("PRJ-C", new JobCache.Entry(3000L, null, null));
+        cache.save();
+
+        JobCache loaded = new JobCache(file, 0).load();
+        assertEquals(3, loaded.size());
+        JobCache.Entry entry = loaded.get("PRJ-A");
+        assertEquals(1000L, entry.fetched);
+        assertEquals("\"v1\"", entry.etag);
+        assertEquals("Tue, 13 Oct 2026 10:00:00 GMT", entry.lastModified);
+        assertEquals(2, entry.jobs.size());
+        assertArrayEquals(new String[] { "PRJ-A-JOB1", "Build and test" }, entry.jobs.get(0));
+        assertNull(loaded.get("PRJ-B").etag);
+        assertNull(loaded.get("PRJ-B").lastModified);
+
+        loaded.retain(Arrays.asList("PRJ-A", "PRJ-C", "PRJ-D"));
+        loaded.save();
+        JobCache retained = new JobCache(file, 0).load();
+        assertEquals(2, retained.size());
+        assertNull(retained.get("PRJ-B"));
+        assertEquals(3000L, retained.get("PRJ-C").fetched);
+
+        Files.write(file, "P\tPRJ-A\tnot a number\t\t\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, new JobCache(file, 0).load().size());
+    }
+}
@@ -0,0 +1,47 @@
+package requests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JobFilterTest {
+    @Test
+    public void defaultsMatchOriginalRules() {
+        JobFilter filter = JobFilter.defaults();
+
+        assertFalse(filter.includePlan("CI-BUILD"));
+        assertTrue(filter.includePlan("DVOPS-BSTEST"));
+        assertTrue(filter.includeJob("Default Job"));
+        assertTrue(filter.includeJob("PRODUCTION Package"));
+        assertFalse(filter.includeJob("Integration Tests"));
+    }
+
+    @Test
+    public void excludeWinsOverInclude() {
+        JobFilter filter = new JobFilter()
+                .add("project.include=DV*")
+                .add("plan.exclude=regex:DVOPS-(OLD|TMP).*")
+                .add("job.include=*")
+                .add("job.exclude=*nightly*");
+
+        assertTrue(filter.includePlan("DVOPS-BSTEST"));
+        assertFalse(filter.includePlan("DVOPS-OLDPLAN"));
+        assertFalse(filter.includePlan("OPS-BSTEST"));
+        assertTrue(filter.includeJob("Production Package"));
+        assertFalse(filter.includeJob("Nightly Production"));
+    }
+
+    @Test
+    public void describeListsEveryRule() {
+        assertEquals("plan.exclude=CI-* job.include=*default* job.include=*production*", JobFilter.defaults().describe());
+        assertEquals("job.exclude=regex:.*Test.*", new JobFilter().add(" job.exclude = regex:.*Test.* ").describe());
+        assertEquals("no rules", new JobFilter().describe());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownField() {
+        new JobFilter().add("stage.include=*");
+    }
+}
@@ -1,25 +1,68 @@
 package requests;
 
-import requests.JobRequirements;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
-import com.atlassian.bamboo.specs.api.exceptions.PropertiesValidationException;
-import com.google.gson.JsonObject;
-
 public class JobRequirementsTest {
+
+    private StubBambooServer stub;
+    private BambooClient client;
+    private SweepConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubBambooServer().plans(250).jobsPerPlan(4).maxPageSize(40).start(0);
+        client = new BambooClient(stub.getBaseUrl(), "user", "password")
+                .scheduler(new RequestScheduler(10000, 8).retries(8, 1, 10).circuitBreaker(50, 100));
+        config = new SweepConfig().pageSize(100).concurrency(4);
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    public void checkYourPlanOffline() throws Exception {
+        ArrayList<String> planList = new JobRequirements(client, config).getAllPlans();
+        System.out.println("size: " + planList.size());
+        ArrayList<String> jobList = new JobRequirements(client, config).getJobs(planList);
+        System.out.println("size: " + jobList.size());
+
+        assertEquals(250, planList.size());
+        assertEquals("PRJ-P249", planList.get(249));
+        assertEquals(500, jobList.size());
+    }
+
+    @Test
+    public void pipelineIsIdempotent() throws Exception {
+        RequirementPipeline first = new RequirementPipeline(new JobRequirements(client, config), 4, 16);
+        assertTrue(first.run().isEmpty());
+        assertEquals(500, first.getCount(Outcome.ADDED));
+        assertTrue(stub.getRequirements("PRJ-P7-JOB0").contains("package_release"));
+
+        int posts = stub.getPostCount();
+        RequirementPipeline second = new RequirementPipeline(new JobRequirements(client, config), 4, 16);
+        assertTrue(second.run().isEmpty());
+        assertEquals(500, second.getCount(Outcome.UNCHANGED));
+        assertEquals(posts, stub.getPostCount());
+    }
+
     @Test
-    public void checkYourPlanOffline() throws PropertiesValidationException {
-        // Fetch exiting Bamboo plans
-        JsonObject credentials = new JobRequirements().getCredentials();
-        JsonObject plans = new JobRequirements().getPlans(credentials);
-        ArrayList<String> planList = new JobRequirements().parsePlans(plans);
-        System.out.println("size: " + planList.size() + "\n" + planList);
-        ArrayList<String> jobs = new JobRequirements().getJobs(planList, credentials);
-        ArrayList<String> jobList = new JobRequirements().parseJobs(jobs);
-        System.out.println("size: " + jobList.size() + "\n" + jobList);
+    public void transientErrorsAreRetried() throws Exception {
+        stub.errors(0.2, 503);
+
+        RequirementPipeline pipeline = new RequirementPipeline(new JobRequirements(client, config), 4, 16);
+        ArrayList<String> errors = pipeline.run();
 
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(500, pipeline.getCount(Outcome.ADDED));
+        assertTrue(stub.getErrorCount() > 0);
     }
 }
@@ -0,0 +1,130 @@
+package requests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalTest {
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("journal", ".txt");
+        Files.delete(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void restartSkipsFinishedWork() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer().plans(50).jobsPerPlan(2).start(0)) {
+            BambooClient client = new BambooClient(stub.getBaseUrl(), "user", "password");
+            SweepConfig config = new SweepConfig().pageSize(100);
+
+            Journal journal = new Journal(file, "test", 16, 50).open();
+            RequirementPipeline first = new RequirementPipeline(new JobRequirements(client, config), 4, 16).journal(journal);
+            assertTrue(first.run().isEmpty());
+            journal.close();  // as if the run had been killed before complete()
+
+            int requests = stub.getRequestCount();
+            journal = new Journal(file, "test", 16, 50).open();
+            RequirementPipeline second = new RequirementPipeline(new JobRequirements(client, config), 4, 16).journal(journal);
+            assertTrue(second.run().isEmpty());
+            journal.complete();
+
+            assertEquals(50, second.getResumedCount());
+            assertEquals(0, second.getJobCount());
+            assertEquals(requests + 1, stub.getRequestCount());  // only the plan listing
+            assertFalse(Files.exists(file));
+        }
+    }
+
+    @Test
+    public void unbuildableJobsAreNotJournaled() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer().plans(5).jobsPerPlan(2).agent("linux-1", "os", "linux").start(0)) {
+            BambooClient client = new BambooClient(stub.getBaseUrl(), "user", "password");
+            SweepConfig config = new SweepConfig().pageSize(100);
+
+            Journal journal = new Journal(file, "test").open();
+            RequirementPipeline first = new RequirementPipeline(new JobRequirements(client, config).agents(AgentIndex.load(client)), 4, 16)
+                    .journal(journal);
+            assertTrue(first.run().isEmpty());
+            assertEquals(5, first.getCount(Outcome.UNBUILDABLE));
+            journal.close();
+
+            stub.agent("linux-2", "os", "linux", "package_release", "true");
+            journal = new Journal(file, "test").open();
+            RequirementPipeline second = new RequirementPipeline(new JobRequirements(client, config).agents(AgentIndex.load(client)), 4, 16)
+                    .journal(journal);
+            assertTrue(second.run().isEmpty());
+            journal.complete();
+
+            assertEquals(0, second.getResumedCount());
+            assertEquals(5, second.getCount(Outcome.ADDED));
+        }
+    }
+
+    @Test
+    public void partialJournalResumesJobs() throws Exception {
+        Files.write(file, "R\ttest\nJ\tPRJ-P1-JOB0\tADDED\nP\tPRJ-P0\nJ\tPRJ-P1-JO".getBytes(StandardCharsets.UTF_8));
+
+        Journal journal = new Journal(file, "test").open();
+        journal.jobDone("PRJ-P1-JOB2", Outcome.UNCHANGED);
+        journal.close();
+
+        journal = new Journal(file, "test").open();
+        assertTrue(journal.isPlanDone("PRJ-P0"));
+        assertTrue(journal.isJobDone("PRJ-P1-JOB0"));
+        assertTrue(journal.isJobDone("PRJ-P1-JOB2"));
+        assertFalse(journal.isPlanDone("PRJ-P1"));
+        assertEquals(2, journal.getDoneJobCount());
+        journal.close();
+    }
+
+    @Test
+    public void tornRecordsThatParseAreIgnored() throws Exception {
+        // "P\tPRJ-P1" cut from "P\tPRJ-P10", PRJ-P1 being a real plan
+        Files.write(file, "R\ttest\nP\tPRJ-P0\nP\tPRJ-P1".getBytes(StandardCharsets.UTF_8));
+
+        Journal journal = new Journal(file, "test").open();
+        assertTrue(journal.isPlanDone("PRJ-P0"));
+        assertFalse(journal.isPlanDone("PRJ-P1"));
+        journal.close();
+
+        Files.write(file, "R\ttest\nJ\tPRJ-P0-JOB0\tADDED\nJ\tPRJ-P0-JOB1\t".getBytes(StandardCharsets.UTF_8));
+
+        journal = new Journal(file, "test").open();
+        journal.planDone("PRJ-P2");
+        journal.close();
+
+        journal = new Journal(file, "test").open();
+        assertTrue(journal.isJobDone("PRJ-P0-JOB0"));
+        assertFalse(journal.isJobDone("PRJ-P0-JOB1"));
+        assertTrue(journal.isPlanDone("PRJ-P2"));
+        assertEquals(1, journal.getDoneJobCount());
+        journal.close();
+    }
+
+    @Test
+    public void journalOfAnotherRunIsDiscarded() throws Exception {
+        Files.write(file, "R\tother\nP\tPRJ-P0\n".getBytes(StandardCharsets.UTF_8));
+
+        Journal journal = new Journal(file, "test").open();
+        assertFalse(journal.isPlanDone("PRJ-P0"));
+        journal.close();
+
+        assertTrue(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).startsWith("R\ttest\n"));
+    }
+}
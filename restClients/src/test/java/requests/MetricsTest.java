@@ -0,0 +1,131 @@
+package requests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+public class MetricsTest {
+
+    @Test
+    public void endpointsAreNormalized() {
+        assertEquals("GET /rest/api/latest/plan", Metrics.endpoint("GET", "/rest/api/latest/plan?start-index=500&max-results=500"));
+        assertEquals("GET /rest/api/latest/search/jobs/{key}", Metrics.endpoint("GET", "/rest/api/latest/search/jobs/PRJ-P7"));
+        assertEquals("DELETE /rest/api/latest/config/job/{key}/requirement/{id}",
+                Metrics.endpoint("DELETE", "/rest/api/latest/config/job/PRJ-P7-JOB0/requirement/42"));
+    }
+
+    @Test
+    public void percentilesAreWithinOneBucket() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int i=1; i<=1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        long p50 = histogram.percentile(0.50);
+        long p99 = histogram.percentile(0.99);
+        assertTrue("p50 " + p50, p50 >= 500000 && p50 <= 500000 * 1.125);
+        assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 990000 * 1.125);
+    }
+
+    @Test
+    public void prometheusFamiliesAreGrouped() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.request("GET /rest/api/latest/plan", 200, 2000000, false);
+        metrics.request("GET /rest/api/latest/plan", 503, 4000000, false);
+        metrics.request("POST /rest/api/latest/config/job/{key}/requirement", 200, 1000000, true);
+        metrics.circuitOpened();
+
+        Path file = Files.createTempFile("metrics", ".prom");
+        List<String> lines;
+        try {
+            metrics.writePrometheus(file);
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } finally {
+            Files.delete(file);
+        }
+
+        Set<String> finished = new HashSet<String>();
+        String family = null;
+        for (String line : lines) {
+            String name = line.startsWith("# TYPE ") ? line.split(" ")[2] : line.split("[{ ]")[0].replaceAll("_(sum|count)$", "");
+            if (!name.equals(family)) {
+                assertTrue(line, line.startsWith("# TYPE ") && finished.add(name));
+                family = name;
+            }
+        }
+        assertTrue(lines.contains("bamboo_rest_latency_seconds_count{endpoint=\"GET /rest/api/latest/plan\"} 2"));
+        assertTrue(lines.contains("bamboo_rest_latency_seconds_sum{endpoint=\"GET /rest/api/latest/plan\"} 0.006"));
+        assertTrue(lines.contains("bamboo_rest_errors_total{endpoint=\"GET /rest/api/latest/plan\",status=\"503\"} 1"));
+        assertTrue(lines.contains("bamboo_rest_circuit_opens_total 1"));
+    }
+
+    @Test
+    public void sweepIsRecorded() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer().plans(50).jobsPerPlan(2).errors(0.1, 503).start(0)) {
+            BambooClient client = new BambooClient(stub.getBaseUrl(), "user", "password")
+                    .scheduler(new RequestScheduler(10000, 8).retries(8, 1, 10));
+            RequirementPipeline pipeline = new RequirementPipeline(new JobRequirements(client, new SweepConfig().pageSize(100)), 4, 16);
+            assertTrue(pipeline.run().isEmpty());
+
+            JsonObject json = client.getMetrics().toJson();
+            JsonObject jobs = json.getAsJsonObject("endpoints").getAsJsonObject("GET /rest/api/latest/search/jobs/{key}");
+            System.out.print(client.getMetrics().summary());
+
+            assertTrue(jobs.get("requests").getAsInt() >= 50);
+            assertTrue(jobs.get("bytes").getAsLong() > 0);
+            assertEquals(stub.getRequestCount(), requestTotal(json));
+            assertEquals(stub.getErrorCount(), retryTotal(json));
+            assertTrue(json.getAsJsonObject("phasesMillis").has(RequirementPipeline.UPDATE_PHASE));
+        }
+    }
+
+    @Test
+    public void phasesSkipIdleTimeBetweenRuns() throws Exception {
+        Metrics metrics = new Metrics();
+        for (int run=0; run<2; run++) {
+            metrics.phaseStart("update");
+            metrics.phaseStart("update");
+            Thread.sleep(50);
+            metrics.phaseEnd("update");
+            metrics.phaseEnd("update");
+            Thread.sleep(300);
+        }
+        double millis = metrics.toJson().getAsJsonObject("phasesMillis").get("update").getAsDouble();
+        assertTrue("phase took " + millis + "ms", millis >= 100 && millis < 300);
+    }
+
+    private static int requestTotal(JsonObject json) {
+        int total = 0;
+        for (String endpoint : endpoints(json)) {
+            total += json.getAsJsonObject("endpoints").getAsJsonObject(endpoint).get("requests").getAsInt();
+        }
+        return total;
+    }
+
+    private static int retryTotal(JsonObject json) {
+        int total = 0;
+        for (String endpoint : endpoints(json)) {
+            total += json.getAsJsonObject("endpoints").getAsJsonObject(endpoint).get("retries").getAsInt();
+        }
+        return total;
+    }
+
+    private static Set<String> endpoints(JsonObject json) {
+        Set<String> endpoints = new HashSet<String>();
+        for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("endpoints").entrySet()) {
+            endpoints.add(entry.getKey());
+        }
+        return endpoints;
+    }
+}
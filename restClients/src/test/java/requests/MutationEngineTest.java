@@ -0,0 +1,130 @@
+package requests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class MutationEngineTest {
+
+    private StubBambooServer stub;
+    private BambooClient client;
+    private JobRequirements requests;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new StubBambooServer().plans(20).jobsPerPlan(2).start(0);
+        client = new BambooClient(stub.getBaseUrl(), "user", "password");
+        requests = new JobRequirements(client, null, new JobFilter().add("job.include=*production*"),
+                new SweepConfig().pageSize(100).concurrency(4));
+
+        // Every selected job starts with an "os" requirement and a legacy one
+        RequirementChange os = new RequirementChange(RequirementChange.Action.ADD, "os", "EQUALS", "windows");
+        RequirementChange legacy = new RequirementChange(RequirementChange.Action.ADD, "legacy_agent", null, null);
+        new MutationEngine(requests, client, new ChangeSet().add(os).add(legacy), false).run(4, 16);
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    public void dryRunWritesNothing() throws Exception {
+        int writes = stub.getPostCount();
+        MutationEngine engine = new MutationEngine(requests, client, changeSet(), true);
+
+        assertTrue(engine.run(4, 16).isEmpty());
+        assertEquals(20, engine.getCount(Outcome.MODIFIED));
+        assertEquals(writes, stub.getPostCount());
+    }
+
+    @Test
+    public void appliesAndConverges() throws Exception {
+        MutationEngine engine = new MutationEngine(requests, client, changeSet(), false);
+        assertTrue(engine.run(4, 16).isEmpty());
+        assertEquals(20, engine.getResults().size());
+        assertEquals(20, engine.getCount(Outcome.MODIFIED));
+
+        assertTrue(stub.getRequirements("PRJ-P3-JOB0").contains("package_release"));
+        assertNull(stub.getRequirement("PRJ-P3-JOB0", "legacy_agent"));
+        assertEquals("linux", stub.getRequirement("PRJ-P3-JOB0", "os").get("matchValue").getAsString());
+
+        MutationEngine again = new MutationEngine(requests, client, changeSet(), false);
+        assertTrue(again.run(4, 16).isEmpty());
+        assertEquals(20, again.getCount(Outcome.UNCHANGED));
+    }
+
+    @Test
+    public void unbuildableChangesAreHeldBack() throws Exception {
+        stub.agent("linux-1", "os", "linux", "package_release", "true")
+            .agent("windows-1", "os", "windows", "legacy_agent", "true");
+        int writes = stub.getPostCount();
+        AgentIndex agents = AgentIndex.load(client);
+        MutationEngine engine = new MutationEngine(requests, client, changeSet().agents(agents), false);
+
+        assertTrue(engine.run(4, 16).isEmpty());
+        assertEquals(20, engine.getResults(Outcome.UNBUILDABLE).size());
+        assertEquals(20, engine.getUnbuildable().size());
+        assertTrue(agents.explain(engine.getUnbuildable().get(0)).startsWith("no single agent provides all"));
+        assertFalse(stub.getRequirements("PRJ-P3-JOB0").contains("package_release"));
+        assertEquals("windows", stub.getRequirement("PRJ-P3-JOB0", "os").get("matchValue").getAsString());
+        assertEquals(writes + 20, stub.getPostCount());  // only the removals, which cannot strand a job
+    }
+
+    @Test
+    public void variablesAreWrittenOncePerPlan() throws Exception {
+        JobRequirements everyJob = new JobRequirements(client, null, new JobFilter(), new SweepConfig().pageSize(100).concurrency(4));
+        int writes = stub.getPostCount();
+
+        MutationEngine add = new MutationEngine(everyJob, client,
+                new ChangeSet().add(new VariableChange(RequirementChange.Action.ADD, "release.train", "R42")), false);
+        assertTrue(add.run(4, 16).isEmpty());
+        assertEquals(20, add.getCount(Outcome.ADDED));
+        assertEquals(20, add.getCount(Outcome.UNCHANGED));  // the second job of each plan
+        assertEquals(writes + 20, stub.getPostCount());
+        assertEquals("R42", stub.getVariable("PRJ-P3", "release.train"));
+
+        MutationEngine modify = new MutationEngine(everyJob, client,
+                new ChangeSet().add(new VariableChange(RequirementChange.Action.MODIFY, "release.train", "R43")), false);
+        assertTrue(modify.run(4, 16).isEmpty());
+        assertEquals(20, modify.getCount(Outcome.MODIFIED));
+        assertEquals(writes + 40, stub.getPostCount());
+        assertEquals("R43", stub.getVariable("PRJ-P3", "release.train"));
+
+        MutationEngine remove = new MutationEngine(everyJob, client,
+                new ChangeSet().add(new VariableChange(RequirementChange.Action.REMOVE, "release.train", null)), false);
+        assertTrue(remove.run(4, 16).isEmpty());
+        assertEquals(20, remove.getCount(Outcome.REMOVED));
+        assertEquals(writes + 60, stub.getPostCount());
+        assertNull(stub.getVariable("PRJ-P3", "release.train"));
+    }
+
+    @Test
+    public void runIdCoversTheWholeChangeSet() {
+        String raw = "{ \"changes\": [ { \"type\": \"raw\", \"method\": \"PUT\", \"path\": \"/rest/api/latest/x/{jobKey}\", \"body\": ";
+        ChangeSet one = ChangeSet.parse((JsonObject) new JsonParser().parse(raw + "{ \"a\": 1 } } ] }"));
+        ChangeSet two = ChangeSet.parse((JsonObject) new JsonParser().parse(raw + "{ \"a\": 2 } } ] }"));
+        assertEquals(one.describe(), two.describe());
+        assertFalse(one.getRunId().equals(two.getRunId()));
+        assertEquals(changeSet().getRunId(), changeSet().getRunId());
+
+        VariableChange variable = new VariableChange(RequirementChange.Action.MODIFY, "release.train", "R42");
+        assertEquals("variable modify release.train R42", variable.describe());
+    }
+
+    private static ChangeSet changeSet() {
+        JsonObject json = (JsonObject) new JsonParser().parse("{ \"changes\": ["
+                + "{ \"type\": \"requirement\", \"action\": \"add\", \"key\": \"package_release\", \"matchType\": \"EXISTS\" },"
+                + "{ \"type\": \"requirement\", \"action\": \"modify\", \"key\": \"os\", \"matchType\": \"EQUALS\", \"matchValue\": \"linux\" },"
+                + "{ \"type\": \"requirement\", \"action\": \"remove\", \"key\": \"legacy_agent\" } ] }");
+        return ChangeSet.parse(json);
+    }
+}
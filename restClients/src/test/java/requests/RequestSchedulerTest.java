@@ -0,0 +1,122 @@
+package requests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+
+    @Test
+    public void tokenBucketPacesCalls() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(200, 5);
+        long start = System.nanoTime();
+        for (int i=0; i<5; i++) {
+            scheduler.execute(() -> "ok");
+        }
+        long burst = (System.nanoTime() - start) / 1000000;
+        assertTrue("burst took " + burst + "ms", burst < 20);
+
+        for (int i=0; i<40; i++) {
+            scheduler.execute(() -> "ok");
+        }
+        long paced = (System.nanoTime() - start) / 1000000;
+        assertTrue("40 calls at 200/s took " + paced + "ms", paced >= 180);
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() {
+        RequestScheduler scheduler = new RequestScheduler(100, 1).retries(10, 100, 1000);
+        IOException failure = new SocketTimeoutException("read timed out");
+        for (int attempt=1; attempt<=8; attempt++) {
+            long ceiling = Math.min(1000, 100L << (attempt - 1));
+            Set<Long> delays = new HashSet<Long>();
+            for (int i=0; i<200; i++) {
+                long delay = scheduler.delay(attempt, failure);
+                assertTrue("attempt " + attempt + " delay " + delay, delay >= 0 && delay <= ceiling);
+                delays.add(delay);
+            }
+            assertTrue("attempt " + attempt + " is not jittered", delays.size() > 10);
+        }
+    }
+
+    @Test
+    public void retryAfterTakesPrecedence() {
+        BambooException throttled = new BambooException("GET /rest/api/latest/plan", 429, "", 2);
+        assertEquals(2000, new RequestScheduler(100, 1).retries(5, 100, 5000).delay(1, throttled));
+        assertEquals(1000, new RequestScheduler(100, 1).retries(5, 100, 1000).delay(1, throttled));
+        assertEquals(0, new RequestScheduler(100, 1).retries(5, 100, 1000)
+                .delay(3, new BambooException("GET /rest/api/latest/plan", 503, "", 0)));
+    }
+
+    @Test
+    public void writesAreOnlyRetriedWhenNotSent() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(10000, 10).retries(3, 0, 0).circuitBreaker(1000, 0);
+        assertEquals(3, attempts(scheduler, new SocketTimeoutException("read timed out"), true));
+        assertEquals(1, attempts(scheduler, new SocketTimeoutException("read timed out"), false));
+        assertEquals(1, attempts(scheduler, new IOException("Unexpected end of file from server"), false));
+        assertEquals(3, attempts(scheduler, new ConnectException("Connection refused"), false));
+        assertEquals(3, attempts(scheduler, new BambooException("POST", 503, "", -1), false));
+        assertEquals(3, attempts(scheduler, new BambooException("POST", 429, "", -1), false));
+        assertEquals(1, attempts(scheduler, new BambooException("POST", 502, "", -1), false));
+        assertEquals(3, attempts(scheduler, new BambooException("GET", 502, "", -1), true));
+        assertEquals(1, attempts(scheduler, new BambooException("GET", 404, "", -1), true));
+    }
+
+    @Test
+    public void breakerOpensProbesAndCloses() throws Exception {
+        Metrics metrics = new Metrics();
+        RequestScheduler scheduler = new RequestScheduler(10000, 10).retries(1, 0, 0).circuitBreaker(2, 200).metrics(metrics);
+        IOException reset = new IOException("Connection reset");
+
+        attempts(scheduler, reset, true);
+        assertEquals(RequestScheduler.State.CLOSED, scheduler.getState());
+        attempts(scheduler, reset, true);
+        assertEquals(RequestScheduler.State.OPEN, scheduler.getState());
+        assertEquals(1, metrics.getCircuitOpenCount());
+
+        // The probe waits out the open period and its failure opens the circuit again
+        long start = System.nanoTime();
+        attempts(scheduler, reset, true);
+        assertTrue((System.nanoTime() - start) / 1000000 >= 150);
+        assertEquals(RequestScheduler.State.OPEN, scheduler.getState());
+        assertEquals(2, metrics.getCircuitOpenCount());
+
+        start = System.nanoTime();
+        assertEquals("ok", scheduler.execute(() -> "ok"));
+        assertTrue((System.nanoTime() - start) / 1000000 >= 150);
+        assertEquals(RequestScheduler.State.CLOSED, scheduler.getState());
+        assertEquals(2, metrics.getCircuitOpenCount());
+    }
+
+    @Test
+    public void defaultSchedulerHasNoBreaker() throws Exception {
+        RequestScheduler scheduler = RequestScheduler.unlimited();
+        for (int i=0; i<100; i++) {
+            assertEquals(1, attempts(scheduler, new IOException("Connection reset"), true));
+        }
+        assertEquals(RequestScheduler.State.CLOSED, scheduler.getState());
+    }
+
+    private static int attempts(RequestScheduler scheduler, IOException failure, boolean idempotent) {
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            scheduler.execute(() -> {
+                attempts.incrementAndGet();
+                throw failure;
+            }, idempotent);
+            fail("expected " + failure);
+        } catch (IOException e) {
+            assertEquals(failure, e);
+        }
+        return attempts.get();
+    }
+}
@@ -0,0 +1,511 @@
+/**
+ * StubBambooServer.java
+ *
+ * Embedded stand-in for the parts of the Bamboo REST API used by restClients, for offline and high volume testing.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * StubBambooServer class definition.  Serves, under http://127.0.0.1:{port}/bamboo:
+ *
+ * <pre>
+ * GET    /rest/api/latest/plan?start-index=&amp;max-results=     plans PRJ-P0 .. PRJ-P{plans-1}, paged
+ * GET    /rest/api/latest/plan/{planKey}?expand=stages.stage.plans  plan name "Project - {planKey}" and one stage holding
+ *                                                                the jobs; plans and jobs are enabled unless disabled()
+ * GET    /rest/api/latest/plan/{planKey}/variables               plan variables added so far
+ * POST   /rest/api/latest/plan/{planKey}/variables               adds a variable, 400 if it already exists
+ * PUT    /rest/api/latest/plan/{planKey}/variables/{name}        replaces the value of a variable
+ * DELETE /rest/api/latest/plan/{planKey}/variables/{name}        removes a variable
+ * GET    /rest/api/latest/search/jobs/{planKey}                  jobs {planKey}-JOB0 .., even jobs are "Production ..."; sent
+ *                                                                with an ETag, a matching If-None-Match gets a 304; none
+ *                                                                for a plan made empty()
+ * GET    /rest/api/latest/config/job/{jobKey}/requirement        requirements added so far
+ * POST   /rest/api/latest/config/job/{jobKey}/requirement        adds a requirement, 400 if it already exists
+ * PUT    /rest/api/latest/config/job/{jobKey}/requirement/{id}   replaces a requirement
+ * DELETE /rest/api/latest/config/job/{jobKey}/requirement/{id}   removes a requirement
+ * GET    /rest/api/latest/agent                                  agents added with agent()
+ * GET    /rest/api/latest/agent/{id}/capability                  capabilities of one agent
+ * </pre>
+ *
+ * Every request waits 'latency' milliseconds, and a fraction 'errorRate' of requests fail with 'errorStatus' before
+ * doing anything, so retry and slow server behavior can be reproduced.  Page size is capped at 'maxPageSize' like
+ * a real server.  Run main() to serve a large instance for manual load tests.
+ *
+ */
+public class StubBambooServer implements AutoCloseable {
+
+    static {
+        // Send headers and body without waiting on the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private int plans = 100;
+    private int jobsPerPlan = 2;
+    private int maxPageSize = 1000;
+    private long latency;
+    private double errorRate;
+    private int errorStatus = 503;
+
+    private final Set<String> disabled = ConcurrentHashMap.newKeySet();
+    private final Set<String> empty = ConcurrentHashMap.newKeySet();
+    private final Map<String, Map<String, String>> agents = new LinkedHashMap<String, Map<String, String>>();
+    private final Map<String, Map<String, JsonObject>> requirements = new ConcurrentHashMap<String, Map<String, JsonObject>>();
+    private final Map<String, Map<String, String>> variables = new ConcurrentHashMap<String, Map<String, String>>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger posts = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public StubBambooServer plans(int plans) {
+        this.plans = plans;
+        return this;
+    }
+
+    public StubBambooServer jobsPerPlan(int jobsPerPlan) {
+        this.jobsPerPlan = jobsPerPlan;
+        return this;
+    }
+
+    public StubBambooServer maxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+        return this;
+    }
+
+    public StubBambooServer latency(long millis) {
+        this.latency = millis;
+        return this;
+    }
+
+    public StubBambooServer errors(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * disabled()
+     *
+     * @param key plan key or job key
+     * @return this
+     */
+    public StubBambooServer disabled(String key) {
+        disabled.add(key);
+        return this;
+    }
+
+    /**
+     * empty()
+     *
+     * @param planKey plan that has no jobs, whatever jobsPerPlan is
+     * @return this
+     */
+    public StubBambooServer empty(String planKey) {
+        empty.add(planKey);
+        return this;
+    }
+
+    /**
+     * agent()
+     *
+     * @param name agent name
+     * @param capabilities key, value pairs
+     * @return this
+     */
+    public StubBambooServer agent(String name, String... capabilities) {
+        Map<String, String> agent = new LinkedHashMap<String, String>();
+        for (int i=0; i+1<capabilities.length; i+=2) {
+            agent.put(capabilities[i], capabilities[i + 1]);
+        }
+        agents.put(name, agent);
+        return this;
+    }
+
+    /**
+     * start()
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return this
+     */
+    public StubBambooServer start(int port) throws IOException {
+        executor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 512);
+        server.createContext("/bamboo/rest/api/latest/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bamboo";
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * getPostCount()
+     *
+     * @return number of write requests (POST, PUT, DELETE) received
+     */
+    public int getPostCount() {
+        return posts.get();
+    }
+
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * getNotModifiedCount()
+     *
+     * @return number of job searches answered with a 304
+     */
+    public int getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * getRequirements()
+     *
+     * @param jobKey
+     * @return requirement keys currently set on the job
+     */
+    public Set<String> getRequirements(String jobKey) {
+        return requirements(jobKey).keySet();
+    }
+
+    /**
+     * getRequirement()
+     *
+     * @param jobKey
+     * @param key requirement key
+     * @return requirement as served by GET, or null
+     */
+    public JsonObject getRequirement(String jobKey, String key) {
+        return requirements(jobKey).get(key);
+    }
+
+    /**
+     * getVariable()
+     *
+     * @param planKey
+     * @param name variable name
+     * @return current value of the plan variable, or null
+     */
+    public String getVariable(String planKey, String name) {
+        return variables(planKey).get(name);
+    }
+
+    private Map<String, String> variables(String planKey) {
+        return variables.computeIfAbsent(planKey, k -> new ConcurrentHashMap<String, String>());
+    }
+
+    private Map<String, JsonObject> requirements(String jobKey) {
+        return requirements.computeIfAbsent(jobKey, k -> new ConcurrentHashMap<String, JsonObject>());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            send(exchange, errorStatus, "{\"message\":\"injected failure\"}");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath().substring("/bamboo/rest/api/latest".length());
+        String method = exchange.getRequestMethod();
+        if (method.equals("GET") && path.equals("/plan")) {
+            String query = exchange.getRequestURI().getQuery();
+            send(exchange, 200, plans(param(query, "start-index", 0), Math.min(maxPageSize, param(query, "max-results", 25))));
+        } else if (path.startsWith("/plan/") && path.contains("/variables")) {
+            handleVariable(exchange, method, path);
+        } else if (method.equals("GET") && path.startsWith("/plan/")) {
+            send(exchange, 200, plan(path.substring("/plan/".length())));
+        } else if (method.equals("GET") && path.startsWith("/search/jobs/")) {
+            String planKey = path.substring("/search/jobs/".length());
+            String etag = "\"" + planKey + "-" + jobCount(planKey) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                send(exchange, 304, "");
+            } else {
+                send(exchange, 200, jobs(planKey));
+            }
+        } else if (path.startsWith("/config/job/") && path.contains("/requirement")) {
+            handleRequirement(exchange, method, path);
+        } else if (method.equals("GET") && path.startsWith("/agent")) {
+            send(exchange, 200, agents(path));
+        } else {
+            send(exchange, 404, "");
+        }
+    }
+
+    private void handleRequirement(HttpExchange exchange, String method, String path) throws IOException {
+        int split = path.indexOf("/requirement");
+        String jobKey = path.substring("/config/job/".length(), split);
+        String id = path.length() > split + "/requirement/".length() ? path.substring(split + "/requirement/".length()) : null;
+        Map<String, JsonObject> current = requirements(jobKey);
+
+        if (method.equals("GET") && id == null) {
+            JsonArray array = new JsonArray();
+            for (JsonObject requirement : current.values()) {
+                array.add(requirement);
+            }
+            send(exchange, 200, array.toString());
+        } else if (method.equals("POST") && id == null) {
+            posts.incrementAndGet();
+            JsonObject body = body(exchange);
+            body.addProperty("id", ids.incrementAndGet());
+            if (current.putIfAbsent(body.get("key").getAsString(), body) == null) {
+                send(exchange, 200, body.toString());
+            } else {
+                send(exchange, 400, "{\"message\":\"Requirement already exists\"}");
+            }
+        } else if ((method.equals("PUT") || method.equals("DELETE")) && id != null) {
+            posts.incrementAndGet();
+            String key = null;
+            for (JsonObject requirement : current.values()) {
+                if (requirement.get("id").getAsString().equals(id)) {
+                    key = requirement.get("key").getAsString();
+                }
+            }
+            if (key == null) {
+                send(exchange, 404, "");
+            } else if (method.equals("DELETE")) {
+                current.remove(key);
+                send(exchange, 204, "");
+            } else {
+                JsonObject body = body(exchange);
+                body.addProperty("id", Integer.parseInt(id));
+                current.remove(key);
+                current.put(body.get("key").getAsString(), body);
+                send(exchange, 200, body.toString());
+            }
+        } else {
+            send(exchange, 405, "");
+        }
+    }
+
+    private void handleVariable(HttpExchange exchange, String method, String path) throws IOException {
+        int split = path.indexOf("/variables");
+        String planKey = path.substring("/plan/".length(), split);
+        String name = path.length() > split + "/variables/".length() ? path.substring(split + "/variables/".length()) : null;
+        Map<String, String> current = variables(planKey);
+
+        if (method.equals("GET") && name == null) {
+            JsonArray array = new JsonArray();
+            for (Map.Entry<String, String> variable : current.entrySet()) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("name", variable.getKey());
+                entry.addProperty("value", variable.getValue());
+                array.add(entry);
+            }
+            send(exchange, 200, array.toString());
+        } else if (method.equals("POST") && name == null) {
+            posts.incrementAndGet();
+            JsonObject body = body(exchange);
+            if (current.putIfAbsent(body.get("name").getAsString(), body.get("value").getAsString()) == null) {
+                send(exchange, 200, body.toString());
+            } else {
+                send(exchange, 400, "{\"message\":\"Variable already exists\"}");
+            }
+        } else if ((method.equals("PUT") || method.equals("DELETE")) && name != null) {
+            posts.incrementAndGet();
+            if (!current.containsKey(name)) {
+                send(exchange, 404, "");
+            } else if (method.equals("DELETE")) {
+                current.remove(name);
+                send(exchange, 204, "");
+            } else {
+                JsonObject body = body(exchange);
+                current.put(name, body.get("value").getAsString());
+                send(exchange, 200, body.toString());
+            }
+        } else {
+            send(exchange, 405, "");
+        }
+    }
+
+    private static JsonObject body(HttpExchange exchange) {
+        return (JsonObject) new JsonParser().parse(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+    }
+
+    private String plans(int startIndex, int pageSize) {
+        int end = Math.min(plans, startIndex + pageSize);
+        JsonArray plan = new JsonArray();
+        for (int i=startIndex; i<end; i++) {
+            JsonObject entry = new JsonObject();
+            JsonObject planKey = new JsonObject();
+            planKey.addProperty("key", "PRJ-P" + i);
+            entry.addProperty("shortName", "Plan " + i);
+            entry.addProperty("key", "PRJ-P" + i);
+            entry.add("planKey", planKey);
+            entry.addProperty("enabled", true);
+            plan.add(entry);
+        }
+        JsonObject page = new JsonObject();
+        page.addProperty("size", plans);
+        page.addProperty("start-index", startIndex);
+        page.addProperty("max-result", Math.max(0, end - startIndex));
+        page.add("plan", plan);
+        JsonObject response = new JsonObject();
+        response.addProperty("expand", "plans");
+        response.add("plans", page);
+        return response.toString();
+    }
+
+    private String agents(String path) {
+        JsonArray array = new JsonArray();
+        int id = 0;
+        for (Map.Entry<String, Map<String, String>> agent : agents.entrySet()) {
+            id++;
+            if (path.equals("/agent")) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("id", id);
+                entry.addProperty("name", agent.getKey());
+                entry.addProperty("enabled", true);
+                array.add(entry);
+            } else if (path.equals("/agent/" + id + "/capability")) {
+                for (Map.Entry<String, String> capability : agent.getValue().entrySet()) {
+                    JsonObject entry = new JsonObject();
+                    entry.addProperty("key", capability.getKey());
+                    entry.addProperty("value", capability.getValue());
+                    array.add(entry);
+                }
+            }
+        }
+        return array.toString();
+    }
+
+    private String plan(String planKey) {
+        JsonArray plan = new JsonArray();
+        for (int j=0; j<jobCount(planKey); j++) {
+            JsonObject job = new JsonObject();
+            job.addProperty("shortName", jobName(j));
+            job.addProperty("key", planKey + "-JOB" + j);
+            job.addProperty("enabled", !disabled.contains(planKey + "-JOB" + j));
+            plan.add(job);
+        }
+        JsonObject plans = new JsonObject();
+        plans.addProperty("size", jobCount(planKey));
+        plans.add("plan", plan);
+        JsonObject stage = new JsonObject();
+        stage.addProperty("name", "Default Stage");
+        stage.add("plans", plans);
+        JsonArray stageList = new JsonArray();
+        stageList.add(stage);
+        JsonObject stages = new JsonObject();
+        stages.addProperty("size", 1);
+        stages.add("stage", stageList);
+        JsonObject response = new JsonObject();
+        response.addProperty("key", planKey);
+        response.addProperty("name", "Project - " + planKey);
+        response.addProperty("enabled", !disabled.contains(planKey));
+        response.add("stages", stages);
+        return response.toString();
+    }
+
+    private int jobCount(String planKey) {
+        return empty.contains(planKey) ? 0 : jobsPerPlan;
+    }
+
+    private static String jobName(int j) {
+        return (j % 2 == 0 ? "Production Package " : "Integration Tests ") + j;
+    }
+
+    private String jobs(String planKey) {
+        JsonArray results = new JsonArray();
+        for (int j=0; j<jobCount(planKey); j++) {
+            JsonObject entity = new JsonObject();
+            entity.addProperty("key", planKey + "-JOB" + j);
+            entity.addProperty("planName", planKey);
+            entity.addProperty("jobName", jobName(j));
+            JsonObject result = new JsonObject();
+            result.addProperty("id", planKey + "-JOB" + j);
+            result.addProperty("type", "job");
+            result.add("searchEntity", entity);
+            results.add(result);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("size", jobCount(planKey));
+        response.add("searchResults", results);
+        return response.toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static int param(String query, String name, int fallback) {
+        if (query == null) {
+            return fallback;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return Integer.parseInt(pair.substring(name.length() + 1));
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Run main to serve a stub instance: [port] [plans] [jobsPerPlan] [latencyMillis] [errorRate]
+     */
+    public static void main(final String[] args) throws Exception {
+        StubBambooServer stub = new StubBambooServer()
+                .plans(args.length > 1 ? Integer.parseInt(args[1]) : 10000)
+                .jobsPerPlan(args.length > 2 ? Integer.parseInt(args[2]) : 4)
+                .latency(args.length > 3 ? Long.parseLong(args[3]) : 0)
+                .errors(args.length > 4 ? Double.parseDouble(args[4]) : 0, 503)
+                .start(args.length > 0 ? Integer.parseInt(args[0]) : 8085);
+        System.out.println("Stub Bamboo listening on " + stub.getBaseUrl());
+    }
+}
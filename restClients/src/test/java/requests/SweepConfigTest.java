@@ -0,0 +1,125 @@
+package requests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SweepConfigTest {
+
+    @Test
+    public void parsesOptions() {
+        SweepConfig config = SweepConfig.parse(new String[] { "--server", "http://localhost:8085/bamboo", "--concurrency", "16",
+                "--page-size", "100", "--shard", "2/4", "--dry-run", "--no-cache", "--metrics-prom", "bamboo_sweep.prom",
+                "--filter", "job.include=*production*" });
+
+        assertEquals("http://localhost:8085/bamboo", config.getBaseUrl());
+        assertEquals(16, config.getConcurrency());
+        assertEquals(100, config.getPageSize());
+        assertEquals(2, config.getShardIndex());
+        assertEquals(4, config.getShardCount());
+        assertTrue(config.isDryRun());
+        assertNull(config.getCacheFile());
+        assertEquals(Paths.get(".journal.2of4"), config.getJournalFile());
+        assertEquals(Paths.get("bamboo_sweep.2of4.prom"), config.getMetricsPrometheus());
+
+        for (String[] bad : new String[][] { { "--shard", "5/4" }, { "--shard", "1-4" }, { "--concurrency" }, { "--bogus" } }) {
+            try {
+                SweepConfig.parse(bad);
+                assertTrue("accepted " + String.join(" ", bad), false);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void exportIsUnfilteredByDefault() throws Exception {
+        SweepConfig config = new SweepConfig().filterFile("no-such-filters.txt");
+        assertFalse(config.loadFilter().includeJob("Integration Tests 1"));
+        assertFalse(config.loadExportFilter().includeJob("Integration Tests 1"));
+
+        assertFalse(new SweepConfig().loadFilter().includeJob("Integration Tests 1"));
+        assertTrue(new SweepConfig().loadExportFilter().includeJob("Integration Tests 1"));
+        assertTrue(new SweepConfig().loadExportFilter().includePlan("CI-BUILD"));
+        assertFalse(new SweepConfig().filter("job.include=*production*").loadExportFilter().includeJob("Integration Tests 1"));
+    }
+
+    @Test
+    public void rateMayBeAFraction() {
+        assertEquals(0.5, SweepConfig.parse(new String[] { "--rate", "0.5" }).getRequestsPerSecond(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroRateIsRejected() {
+        SweepConfig.parse(new String[] { "--rate", "0" });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRateIsRejected() {
+        new SweepConfig().requestsPerSecond(-1);
+    }
+
+    @Test
+    public void shardsPartitionPlanKeys() {
+        int[] counts = new int[4];
+        for (int i=0; i<10000; i++) {
+            String planKey = "PRJ" + (i % 37) + "-P" + i;
+            int shard = SweepConfig.shardOf(planKey, 4);
+            counts[shard - 1]++;
+            int owners = 0;
+            for (int s=1; s<=4; s++) {
+                owners += new SweepConfig().shard(s, 4).inShard(planKey) ? 1 : 0;
+            }
+            assertEquals(planKey, 1, owners);
+        }
+        for (int count : counts) {
+            assertTrue("unbalanced shards " + count, count > 2000 && count < 3000);
+        }
+    }
+
+    @Test
+    public void shardedSweepsCoverEveryPlanOnce() throws Exception {
+        try (StubBambooServer stub = new StubBambooServer().plans(120).jobsPerPlan(2).maxPageSize(40).start(0)) {
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            List<Future<RequirementPipeline>> shards = new ArrayList<Future<RequirementPipeline>>();
+            for (int i=1; i<=3; i++) {
+                SweepConfig config = new SweepConfig().pageSize(40).concurrency(2).shard(i, 3);
+                BambooClient client = new BambooClient(stub.getBaseUrl(), "user", "password");
+                shards.add(executor.submit((Callable<RequirementPipeline>) () -> {
+                    RequirementPipeline pipeline = new RequirementPipeline(new JobRequirements(client, config), 2, 16);
+                    assertTrue(pipeline.run().isEmpty());
+                    return pipeline;
+                }));
+            }
+
+            Set<String> planKeys = new HashSet<String>();
+            int added = 0;
+            for (Future<RequirementPipeline> shard : shards) {
+                RequirementPipeline pipeline = shard.get();
+                assertTrue(pipeline.getPlanCount() > 0);
+                for (String planKey : pipeline.getPlanKeys()) {
+                    assertTrue("plan in two shards: " + planKey, planKeys.add(planKey));
+                }
+                added += pipeline.getCount(Outcome.ADDED);
+            }
+            executor.shutdown();
+
+            assertEquals(120, planKeys.size());
+            assertEquals(120, added);  // one Default or Production job per plan
+            assertFalse(stub.getRequirements("PRJ-P7-JOB0").isEmpty());
+        }
+    }
+}
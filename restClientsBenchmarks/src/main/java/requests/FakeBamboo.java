@@ -0,0 +1,114 @@
+/**
+ * FakeBamboo.java
+ *
+ * In-process HTTP endpoint answering the Bamboo REST calls made during a sweep, used by SweepBenchmark.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * FakeBamboo class definition.  Serves 'plans' plans of 'jobsPerPlan' jobs each on localhost, with a fixed delay
+ * per request to stand in for server and network time.  Requirement GETs report package_release as missing, so
+ * every matching job also receives a POST.
+ *
+ */
+final class FakeBamboo implements AutoCloseable {
+
+    static {
+        // Without this the JDK server writes headers and body as separate segments and every response waits out
+        // the client's delayed ACK, which would dominate the measurement
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int plans;
+    private final int jobsPerPlan;
+    private final long latencyMillis;
+
+    FakeBamboo(int plans, int jobsPerPlan, long latencyMillis) throws IOException {
+        this.plans = plans;
+        this.jobsPerPlan = jobsPerPlan;
+        this.latencyMillis = latencyMillis;
+        this.executor = Executors.newFixedThreadPool(64);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.createContext("/bamboo/rest/api/latest/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bamboo";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring("/bamboo/rest/api/latest".length());
+        byte[] body;
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (path.equals("/plan")) {
+            String query = exchange.getRequestURI().getQuery();
+            body = Payloads.plans(plans, param(query, "start-index", 0), param(query, "max-results", 25));
+        } else if (path.startsWith("/search/jobs/")) {
+            body = Payloads.jobs(path.substring("/search/jobs/".length()), jobsPerPlan);
+        } else if (path.startsWith("/config/job/") && exchange.getRequestMethod().equals("GET")) {
+            body = Payloads.requirements(false);
+        } else if (path.startsWith("/config/job/")) {
+            drain(exchange);
+            body = "{}".getBytes("UTF-8");
+        } else {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void drain(HttpExchange exchange) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (exchange.getRequestBody().read(buffer) != -1) {
+            // discard the POST body
+        }
+    }
+
+    private static int param(String query, String name, int fallback) {
+        if (query == null) {
+            return fallback;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "=")) {
+                return Integer.parseInt(pair.substring(name.length() + 1));
+            }
+        }
+        return fallback;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
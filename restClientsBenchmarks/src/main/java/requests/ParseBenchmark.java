@@ -0,0 +1,71 @@
+/**
+ * ParseBenchmark.java
+ *
+ * Throughput of the streaming plan and job parsers used by JobRequirements.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ParseBenchmark class definition.  Parses one synthetic plan listing and one job search response holding 'size'
+ * entries.  These are the streaming replacements of the former parsePlans() and parseJobs().  Run with -prof gc to
+ * see the allocation rate per operation.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private byte[] plans;
+    private byte[] jobs;
+    private JobFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        plans = Payloads.plans(size, 0, size);
+        jobs = Payloads.jobs("PRJ-P0", size);
+        filter = JobFilter.defaults();
+    }
+
+    @Benchmark
+    public PlanPage parsePlans() throws Exception {
+        return BambooJson.readPlans(reader(plans), filter::includePlan);
+    }
+
+    @Benchmark
+    public int parseJobs(Blackhole blackhole) throws Exception {
+        return BambooJson.readJobs(reader(jobs), filter::includeJob, (key, name) -> blackhole.consume(key));
+    }
+
+    private static InputStreamReader reader(byte[] body) {
+        return new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Payloads.java
+ *
+ * Synthetic Bamboo REST responses for the benchmarks.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Payloads class definition.  Builds response bodies shaped like the real Bamboo ones, including the fields the
+ * client skips, so the parsers do realistic work.  Plan i is PRJ-P{i} and has 'jobsPerPlan' jobs; every other job
+ * is named so the default JobFilter accepts it.
+ *
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * plans()
+     *
+     * @param total number of plans in the instance
+     * @param startIndex first plan on the page
+     * @param pageSize maximum number of plans on the page
+     * @return /rest/api/latest/plan response
+     */
+    static byte[] plans(int total, int startIndex, int pageSize) {
+        int end = Math.min(total, startIndex + pageSize);
+        StringBuilder json = new StringBuilder(128 * Math.max(0, end - startIndex) + 256);
+        json.append("{\"expand\":\"plans\",\"link\":{\"href\":\"http://localhost/rest/api/latest/plan\",\"rel\":\"self\"},");
+        json.append("\"plans\":{\"size\":").append(total)
+            .append(",\"expand\":\"plan\",\"start-index\":").append(startIndex)
+            .append(",\"max-result\":").append(end - startIndex).append(",\"plan\":[");
+        for (int i=startIndex; i<end; i++) {
+            if (i > startIndex) {
+                json.append(',');
+            }
+            String key = "PRJ-P" + i;
+            json.append("{\"shortName\":\"Plan ").append(i).append("\",\"shortKey\":\"P").append(i)
+                .append("\",\"type\":\"chain\",\"enabled\":true,\"link\":{\"href\":\"http://localhost/rest/api/latest/plan/")
+                .append(key).append("\",\"rel\":\"self\"},\"key\":\"").append(key)
+                .append("\",\"name\":\"Project - Plan ").append(i).append("\",\"planKey\":{\"key\":\"").append(key).append("\"}}");
+        }
+        json.append("]}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * jobs()
+     *
+     * @param planKey
+     * @param jobsPerPlan
+     * @return /rest/api/latest/search/jobs/{planKey} response
+     */
+    static byte[] jobs(String planKey, int jobsPerPlan) {
+        StringBuilder json = new StringBuilder(160 * jobsPerPlan + 64);
+        json.append("{\"size\":").append(jobsPerPlan).append(",\"searchResults\":[");
+        for (int j=0; j<jobsPerPlan; j++) {
+            if (j > 0) {
+                json.append(',');
+            }
+            String key = planKey + "-JOB" + j;
+            String name = (j % 2 == 0 ? "Production Package " : "Integration Tests ") + j;
+            json.append("{\"id\":\"").append(key).append("\",\"type\":\"job\",\"searchEntity\":{\"id\":\"").append(key)
+                .append("\",\"key\":\"").append(key).append("\",\"planName\":\"").append(planKey)
+                .append("\",\"jobName\":\"").append(name).append("\",\"type\":\"job\"}}");
+        }
+        json.append("],\"start-index\":0,\"max-result\":").append(jobsPerPlan).append('}');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * requirements()
+     *
+     * @param present true if the job already has package_release
+     * @return /rest/api/latest/config/job/{jobKey}/requirement response
+     */
+    static byte[] requirements(boolean present) {
+        String json = present
+                ? "[{\"id\":1,\"key\":\"package_release\",\"matchType\":\"EXISTS\",\"matchValue\":\"\",\"readonly\":false}]"
+                : "[{\"id\":2,\"key\":\"system.builder.ant.Ant\",\"matchType\":\"EXISTS\",\"matchValue\":\"\",\"readonly\":false}]";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
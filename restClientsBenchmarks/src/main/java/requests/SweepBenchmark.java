@@ -0,0 +1,81 @@
+/**
+ * SweepBenchmark.java
+ *
+ * End to end latency of a requirement sweep against FakeBamboo.
+ *
+ * @author michael.howard
+ *
+ */
+package requests;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SweepBenchmark class definition.  Each operation is one complete RequirementPipeline run: page through all plans,
+ * stream the jobs of each plan, read the requirements of each matching job and POST the missing requirement.  The
+ * fake server adds 'latency' milliseconds to every request, so the numbers show how well a concurrency level hides
+ * round trips.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SweepBenchmark {
+
+    @Param({ "1000" })
+    public int plans;
+
+    @Param({ "4" })
+    public int jobsPerPlan;
+
+    @Param({ "2" })
+    public long latency;
+
+    @Param({ "1", "4", "16", "64" })
+    public int concurrency;
+
+    private FakeBamboo server;
+    private BambooClient client;
+    private SweepConfig config;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BambooClient.keepAlive(2 * concurrency);
+        server = new FakeBamboo(plans, jobsPerPlan, latency);
+        client = new BambooClient(server.getBaseUrl(), "bench", "bench");
+        config = new SweepConfig().pageSize(500).concurrency(concurrency);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public int sweep() throws Exception {
+        RequirementPipeline pipeline = new RequirementPipeline(new JobRequirements(client, config), concurrency, config.getQueueSize());
+        ArrayList<String> errors = pipeline.run();
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException(errors.size() + " errors, first: " + errors.get(0));
+        }
+        return pipeline.getCount(Outcome.ADDED);
+    }
+}